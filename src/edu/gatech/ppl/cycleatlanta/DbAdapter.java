@@ -30,12 +30,17 @@
 
 package edu.gatech.ppl.cycleatlanta;
 
+import java.util.Collection;
+import java.util.List;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
 import android.util.Log;
 
 /**
@@ -52,7 +57,14 @@ import android.util.Log;
  * SDK**
  */
 public class DbAdapter {
-	private static final int DATABASE_VERSION = 21;
+	private static final int DATABASE_VERSION = 27;
+
+	// Not backed by a provider; list loaders watch these and the write
+	// methods below notify them when trip or note rows change
+	public static final Uri TRIPS_URI = Uri
+			.parse("content://edu.gatech.ppl.cycleatlanta/trips");
+	public static final Uri NOTES_URI = Uri
+			.parse("content://edu.gatech.ppl.cycleatlanta/notes");
 
 	public static final String K_TRIP_ROWID = "_id";
 	public static final String K_TRIP_PURP = "purp";
@@ -67,6 +79,18 @@ public class DbAdapter {
 	public static final String K_TRIP_LGTHI = "lgthi";
 	public static final String K_TRIP_LGTLO = "lgtlo";
 	public static final String K_TRIP_STATUS = "status";
+	// Summary of a finished trip, written once by TripStats; null until
+	// then, except moving time and top speed, which the recorder keeps up
+	// to date at every checkpoint
+	public static final String K_TRIP_DURATION = "duration";
+	public static final String K_TRIP_MOVINGTIME = "movingtime";
+	public static final String K_TRIP_NUMPOINTS = "numpoints";
+	public static final String K_TRIP_CO2 = "co2";
+	public static final String K_TRIP_CALORIES = "calories";
+	public static final String K_TRIP_AVGSPEED = "avgspeed";
+	public static final String K_TRIP_MAXSPEED = "maxspeed";
+	// Time spent auto-paused, kept by the recorder; not part of duration
+	public static final String K_TRIP_PAUSETIME = "pausetime";
 
 	public static final String K_POINT_ROWID = "_id";
 	public static final String K_POINT_TRIP = "trip";
@@ -77,6 +101,23 @@ public class DbAdapter {
 	public static final String K_POINT_ALT = "alt";
 	public static final String K_POINT_SPEED = "speed";
 
+	public static final String K_CHUNK_ROWID = "_id";
+	public static final String K_CHUNK_TRIP = "trip";
+	public static final String K_CHUNK_SEQ = "seq";
+	public static final String K_CHUNK_NPOINTS = "npoints";
+	public static final String K_CHUNK_T0 = "t0";
+	public static final String K_CHUNK_T1 = "t1";
+	public static final String K_CHUNK_LATHI = "lathi";
+	public static final String K_CHUNK_LATLO = "latlo";
+	public static final String K_CHUNK_LGTHI = "lgthi";
+	public static final String K_CHUNK_LGTLO = "lgtlo";
+	public static final String K_CHUNK_DATA = "data";
+
+	public static final String K_LEVEL_TRIP = "trip";
+	public static final String K_LEVEL_LEVEL = "level";
+	public static final String K_LEVEL_TOLERANCE = "tolerance";
+	public static final String K_LEVEL_DATA = "data";
+
 	public static final String K_NOTE_ROWID = "_id";
 	public static final String K_NOTE_RECORDED = "noterecorded";
 	public static final String K_NOTE_FANCYSTART = "notefancystart";
@@ -89,10 +130,15 @@ public class DbAdapter {
 	public static final String K_NOTE_DETAILS = "notedetails";
 	public static final String K_NOTE_IMGURL = "noteimageurl";
 	public static final String K_NOTE_IMGDATA = "noteimagedata";
+	public static final String K_NOTE_IMGPATH = "noteimagepath";
 	public static final String K_NOTE_STATUS = "notestatus";
 
 	private static final String TAG = "DbAdapter";
-	private DatabaseHelper mDbHelper;
+
+	// One helper, and so one connection pool, for the whole process
+	private static DatabaseHelper sDbHelper;
+	// Set only on an adapter over a scratch database of its own
+	private final DatabaseHelper mScratchHelper;
 	private SQLiteDatabase mDb;
 
 	/**
@@ -101,29 +147,112 @@ public class DbAdapter {
 	private static final String TABLE_CREATE_TRIPS = "create table trips "
 			+ "(_id integer primary key autoincrement, purp text, start double, endtime double, "
 			+ "fancystart text, fancyinfo text, distance float, note text,"
-			+ "lathi integer, latlo integer, lgthi integer, lgtlo integer, status integer);";
+			+ "lathi integer, latlo integer, lgthi integer, lgtlo integer, status integer, "
+			+ "duration double, movingtime double, numpoints integer, co2 float, calories float, "
+			+ "avgspeed float, maxspeed float, pausetime double);";
+
+	private static final String[] ADD_TRIP_STATS = {
+			"alter table trips add column duration double;",
+			"alter table trips add column movingtime double;",
+			"alter table trips add column numpoints integer;",
+			"alter table trips add column co2 float;",
+			"alter table trips add column calories float;",
+			"alter table trips add column avgspeed float;",
+			"alter table trips add column maxspeed float;" };
 
 	private static final String TABLE_CREATE_COORDS = "create table coords "
 			+ "(_id integer primary key autoincrement, "
 			+ "trip integer, lat int, lgt int, "
 			+ "time double, acc float, alt double, speed float);";
 
+	// Finished trips: runs of points packed by TrackCodec, with the time
+	// range and extent of each run
+	private static final String TABLE_CREATE_CHUNKS = "create table coord_chunks "
+			+ "(_id integer primary key autoincrement, trip integer, seq integer, "
+			+ "npoints integer, t0 double, t1 double, "
+			+ "lathi integer, latlo integer, lgthi integer, lgtlo integer, data blob);";
+
+	// Simplified copies of a finished trip's track for the map, one row per
+	// level of detail, built on first view by TrackLevels
+	private static final String[] CREATE_LEVELS = {
+			"create table trip_levels "
+					+ "(_id integer primary key autoincrement, trip integer, level integer, "
+					+ "tolerance float, data text);",
+			"create unique index trip_levels_trip_level on trip_levels (trip, level);" };
+
+	// Photos are files in NoteImageStore; noteimagepath names the file.
+	// noteimagedata is only read to migrate rows from before version 24,
+	// by NoteImageStore.migrate().
 	private static final String TABLE_CREATE_NOTES = "create table notes "
 			+ "(_id integer primary key autoincrement, notetype integer, noterecorded double, "
 			+ "notefancystart text, notedetails text, noteimageurl text, noteimagedata blob, "
-			+ "notelat int, notelgt int, noteacc float, notealt double, notespeed float, notestatus integer);";
+			+ "notelat int, notelgt int, noteacc float, notealt double, notespeed float, notestatus integer, "
+			+ "noteimagepath text);";
+
+	// Every lookup and sort the adapter does goes through one of these.
+	// coords(trip, time) serves trip loads in time order without a temp
+	// sort; the status indexes cover the unsent/cleanup queries outright.
+	private static final String[] CREATE_INDEXES = {
+			"create index coords_trip_time on coords (trip, time);",
+			"create unique index coord_chunks_trip_seq on coord_chunks (trip, seq);",
+			"create index trips_status on trips (status, _id);",
+			"create index trips_start on trips (start);",
+			"create index notes_status on notes (notestatus, _id);",
+			"create index notes_recorded on notes (noterecorded);" };
+
+	private static final String INSERT_COORD = "insert into coords "
+			+ "(trip, lat, lgt, time, acc, alt, speed) values (?, ?, ?, ?, ?, ?, ?);";
+
+	private static final String UPDATE_TRIP_END = "update trips set endtime = ? where _id = ?;";
 
 	private static final String DATABASE_NAME = "data";
 	private static final String DATA_TABLE_TRIPS = "trips";
 	private static final String DATA_TABLE_COORDS = "coords";
 	private static final String DATA_TABLE_NOTES = "notes";
+	private static final String DATA_TABLE_CHUNKS = "coord_chunks";
+	private static final String DATA_TABLE_LEVELS = "trip_levels";
 
 	private final Context mCtx;
 
+	// Changes made inside a transaction are announced once it ends, so
+	// loaders never re-query before the commit is visible
+	private boolean mTripsChanged, mNotesChanged;
+
 	private static class DatabaseHelper extends SQLiteOpenHelper {
+		private final String name;
+
+		// Compiled once against this helper's connection; guarded by their
+		// own monitors since bind+execute must not interleave across threads.
+		private SQLiteStatement insertCoord;
+		private SQLiteStatement updateTripEnd;
+
+		DatabaseHelper(Context context, String name) {
+			super(context, name, null, DATABASE_VERSION);
+			this.name = name;
+		}
+
+		synchronized SQLiteStatement insertCoord(SQLiteDatabase db) {
+			if (insertCoord == null) {
+				insertCoord = db.compileStatement(INSERT_COORD);
+			}
+			return insertCoord;
+		}
 
-		DatabaseHelper(Context context) {
-			super(context, DATABASE_NAME, null, DATABASE_VERSION);
+		synchronized SQLiteStatement updateTripEnd(SQLiteDatabase db) {
+			if (updateTripEnd == null) {
+				updateTripEnd = db.compileStatement(UPDATE_TRIP_END);
+			}
+			return updateTripEnd;
+		}
+
+		@Override
+		public void onOpen(SQLiteDatabase db) {
+			super.onOpen(db);
+			// Write-ahead logging lets the trip list and the uploader read
+			// while the recorder is committing points.
+			if (!db.isReadOnly()) {
+				db.enableWriteAheadLogging();
+			}
 		}
 
 		@Override
@@ -132,17 +261,59 @@ public class DbAdapter {
 			db.execSQL(TABLE_CREATE_TRIPS);
 			db.execSQL(TABLE_CREATE_COORDS);
 			db.execSQL(TABLE_CREATE_NOTES);
+			db.execSQL(TABLE_CREATE_CHUNKS);
+			createIndexes(db);
+			for (String sql : CREATE_LEVELS) {
+				db.execSQL(sql);
+			}
+		}
+
+		private void createIndexes(SQLiteDatabase db) {
+			for (String sql : CREATE_INDEXES) {
+				db.execSQL(sql);
+			}
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 			Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
-					+ newVersion + ", which will simply add a new Note table.");
+					+ newVersion);
 
 			// Data Migration:
 			// New Install: this function not called. onCreate called.
-			// Upgrading: don't touch trip and coords table, create notes table
-			db.execSQL(TABLE_CREATE_NOTES);
+			// Upgrading: one step per version, oldest first; trip and coords
+			// data is always kept.
+			if (oldVersion < 21) {
+				db.execSQL(TABLE_CREATE_NOTES);
+			}
+			if (oldVersion < 22) {
+				// Existing trips are packed in the background by
+				// TrackStore.packAll(), not here on whoever opened the db
+				db.execSQL(TABLE_CREATE_CHUNKS);
+			}
+			if (oldVersion < 23) {
+				createIndexes(db);
+			}
+			if (oldVersion < 24 && oldVersion >= 21) {
+				// Tables created by the < 21 step above already have it
+				db.execSQL("alter table notes add column noteimagepath text;");
+				// The photos themselves move out in the background, in
+				// NoteImageStore.migrate()
+			}
+			if (oldVersion < 25) {
+				// Filled in for existing trips by TripStats.backfill()
+				for (String sql : ADD_TRIP_STATS) {
+					db.execSQL(sql);
+				}
+			}
+			if (oldVersion < 26) {
+				for (String sql : CREATE_LEVELS) {
+					db.execSQL(sql);
+				}
+			}
+			if (oldVersion < 27) {
+				db.execSQL("alter table trips add column pausetime double;");
+			}
 		}
 	}
 
@@ -155,6 +326,18 @@ public class DbAdapter {
 	 */
 	public DbAdapter(Context ctx) {
 		this.mCtx = ctx;
+		this.mScratchHelper = null;
+	}
+
+	/**
+	 * An adapter over a scratch database named databaseName instead of the
+	 * app's, for tests that must leave the user's trips alone. Remove it
+	 * with deleteScratch() when done.
+	 */
+	DbAdapter(Context ctx, String databaseName) {
+		this.mCtx = ctx;
+		this.mScratchHelper = new DatabaseHelper(ctx.getApplicationContext(),
+				databaseName);
 	}
 
 	/**
@@ -168,57 +351,180 @@ public class DbAdapter {
 	 *             if the database could be neither opened or created
 	 */
 	public DbAdapter open() throws SQLException {
-		mDbHelper = new DatabaseHelper(mCtx);
-		mDb = mDbHelper.getWritableDatabase();
+		mDb = helper().getWritableDatabase();
 		return this;
 	}
 
 	public DbAdapter openReadOnly() throws SQLException {
-		mDbHelper = new DatabaseHelper(mCtx);
-		mDb = mDbHelper.getReadableDatabase();
+		mDb = helper().getReadableDatabase();
 		return this;
 	}
 
+	/**
+	 * Close and delete the scratch database this adapter was made over.
+	 */
+	void deleteScratch() {
+		mScratchHelper.close();
+		mCtx.deleteDatabase(mScratchHelper.name);
+	}
+
+	/**
+	 * Release this adapter. The shared connection itself stays open for the
+	 * life of the process, so open() after close() is cheap.
+	 */
 	public void close() {
-		mDbHelper.close();
+	}
+
+	private DatabaseHelper helper() {
+		return mScratchHelper != null ? mScratchHelper : getHelper(mCtx);
+	}
+
+	private static synchronized DatabaseHelper getHelper(Context ctx) {
+		if (sDbHelper == null) {
+			sDbHelper = new DatabaseHelper(ctx.getApplicationContext(),
+					DATABASE_NAME);
+		}
+		return sDbHelper;
+	}
+
+	public void beginTransaction() {
+		// Non-exclusive, so WAL readers are not locked out while we write
+		mDb.beginTransactionNonExclusive();
+	}
+
+	public void setTransactionSuccessful() {
+		mDb.setTransactionSuccessful();
+	}
+
+	public void endTransaction() {
+		mDb.endTransaction();
+		if (!mDb.inTransaction()) {
+			if (mTripsChanged) {
+				mTripsChanged = false;
+				mCtx.getContentResolver().notifyChange(TRIPS_URI, null);
+			}
+			if (mNotesChanged) {
+				mNotesChanged = false;
+				mCtx.getContentResolver().notifyChange(NOTES_URI, null);
+			}
+		}
+	}
+
+	private void tripsChanged() {
+		if (mDb.inTransaction()) {
+			mTripsChanged = true;
+		} else {
+			mCtx.getContentResolver().notifyChange(TRIPS_URI, null);
+		}
+	}
+
+	private void notesChanged() {
+		if (mDb.inTransaction()) {
+			mNotesChanged = true;
+		} else {
+			mCtx.getContentResolver().notifyChange(NOTES_URI, null);
+		}
+	}
+
+	// Pass through a row count, announcing the change if there was one
+	private int tripsChanged(int rows) {
+		if (rows > 0) {
+			tripsChanged();
+		}
+		return rows;
+	}
+
+	private int notesChanged(int rows) {
+		if (rows > 0) {
+			notesChanged();
+		}
+		return rows;
 	}
 
 	// #### Coordinate table methods ####
 
 	public boolean addCoordToTrip(long tripid, CyclePoint pt) {
+		return insertCoord(tripid, pt.latitude, pt.longitude, pt.time,
+				pt.accuracy, pt.altitude, pt.speed)
+				&& updateTripEnd(tripid, pt.time);
+	}
+
+	/**
+	 * Add a batch of points to a trip and bump the trip end time once, for
+	 * the last point. Callers should wrap this in a transaction so the whole
+	 * batch costs a single commit.
+	 */
+	public boolean addCoordsToTrip(long tripid, List<CyclePoint> pts) {
+		if (pts.isEmpty()) {
+			return true;
+		}
+
 		boolean success = true;
+		for (int i = 0; i < pts.size(); i++) {
+			CyclePoint pt = pts.get(i);
+			success = success
+					&& insertCoord(tripid, pt.latitude, pt.longitude, pt.time,
+							pt.accuracy, pt.altitude, pt.speed);
+		}
 
-		// Add the latest point
-		ContentValues rowValues = new ContentValues();
-		rowValues.put(K_POINT_TRIP, tripid);
-		rowValues.put(K_POINT_LAT, pt.latitude);
-		rowValues.put(K_POINT_LGT, pt.longitude);
-		rowValues.put(K_POINT_TIME, pt.time);
-		rowValues.put(K_POINT_ACC, pt.accuracy);
-		rowValues.put(K_POINT_ALT, pt.altitude);
-		rowValues.put(K_POINT_SPEED, pt.speed);
+		return success
+				&& updateTripEnd(tripid, pts.get(pts.size() - 1).time);
+	}
 
-		success = success
-				&& (mDb.insert(DATA_TABLE_COORDS, null, rowValues) > 0);
+	/**
+	 * Insert one point through the precompiled statement: no SQL parsing and
+	 * no boxing into ContentValues.
+	 */
+	public boolean insertCoord(long tripid, int lat, int lgt, double time,
+			float acc, double alt, float speed) {
+		SQLiteStatement stmt = insertCoordStatement();
+		synchronized (stmt) {
+			stmt.bindLong(1, tripid);
+			stmt.bindLong(2, lat);
+			stmt.bindLong(3, lgt);
+			stmt.bindDouble(4, time);
+			stmt.bindDouble(5, acc);
+			stmt.bindDouble(6, alt);
+			stmt.bindDouble(7, speed);
+			return stmt.executeInsert() > 0;
+		}
+	}
 
-		// And update the trip stats
-		rowValues = new ContentValues();
-		rowValues.put(K_TRIP_END, pt.time);
+	public boolean updateTripEnd(long tripid, double endtime) {
+		SQLiteStatement stmt = updateTripEndStatement();
+		synchronized (stmt) {
+			stmt.bindDouble(1, endtime);
+			stmt.bindLong(2, tripid);
+			return stmt.executeUpdateDelete() > 0;
+		}
+	}
 
-		success = success
-				&& (mDb.update(DATA_TABLE_TRIPS, rowValues, K_TRIP_ROWID + "="
-						+ tripid, null) > 0);
+	private SQLiteStatement insertCoordStatement() {
+		return helper().insertCoord(mDb);
+	}
 
-		return success;
+	private SQLiteStatement updateTripEndStatement() {
+		return helper().updateTripEnd(mDb);
 	}
 
 	public boolean deleteAllCoordsForTrip(long tripid) {
-		return mDb.delete(DATA_TABLE_COORDS, K_POINT_TRIP + "=" + tripid, null) > 0;
+		deleteTripLevels(tripid);
+		int chunks = mDb.delete(DATA_TABLE_CHUNKS,
+				K_CHUNK_TRIP + "=" + tripid, null);
+		return mDb.delete(DATA_TABLE_COORDS, K_POINT_TRIP + "=" + tripid,
+				null) + chunks > 0;
+	}
+
+	/**
+	 * Remove a trip's unpacked point rows only, once they are in chunks
+	 */
+	public int deleteCoordRowsForTrip(long tripid) {
+		return mDb.delete(DATA_TABLE_COORDS, K_POINT_TRIP + "=" + tripid, null);
 	}
 
 	public Cursor fetchAllCoordsForTrip(long tripid) {
 		try {
-			Cursor mCursor = mDb.query(true, DATA_TABLE_COORDS, new String[] {
+			Cursor mCursor = mDb.query(false, DATA_TABLE_COORDS, new String[] {
 					K_POINT_LAT, K_POINT_LGT, K_POINT_TIME, K_POINT_ACC,
 					K_POINT_ALT, K_POINT_SPEED }, K_POINT_TRIP + "=" + tripid,
 					null, null, null, K_POINT_TIME, null);
@@ -233,6 +539,159 @@ public class DbAdapter {
 		}
 	}
 
+	/**
+	 * Time of the latest stored point for a trip, or 0 if it has none
+	 */
+	public double lastCoordTime(long tripid) {
+		Cursor c = mDb.rawQuery("select max(" + K_POINT_TIME + ") from "
+				+ DATA_TABLE_COORDS + " where " + K_POINT_TRIP + "=" + tripid,
+				null);
+		double time = 0;
+		if (c.moveToFirst() && !c.isNull(0)) {
+			time = c.getDouble(0);
+		}
+		c.close();
+
+		c = mDb.rawQuery("select max(" + K_CHUNK_T1 + ") from "
+				+ DATA_TABLE_CHUNKS + " where " + K_CHUNK_TRIP + "=" + tripid,
+				null);
+		if (c.moveToFirst() && !c.isNull(0)) {
+			time = Math.max(time, c.getDouble(0));
+		}
+		c.close();
+		return time;
+	}
+
+	/**
+	 * Number of stored points for a trip, packed or not
+	 */
+	public int countPointsForTrip(long tripid) {
+		Cursor c = mDb.rawQuery("select (select count(*) from "
+				+ DATA_TABLE_COORDS + " where " + K_POINT_TRIP + "=" + tripid
+				+ ") + (select ifnull(sum(" + K_CHUNK_NPOINTS + "), 0) from "
+				+ DATA_TABLE_CHUNKS + " where " + K_CHUNK_TRIP + "=" + tripid
+				+ ")", null);
+		int count = 0;
+		if (c.moveToFirst()) {
+			count = c.getInt(0);
+		}
+		c.close();
+		return count;
+	}
+
+	// #### Coordinate chunk methods ####
+
+	public long addChunk(long tripid, int seq, int npoints, double t0,
+			double t1, int lathigh, int latlow, int lgthigh, int lgtlow,
+			byte[] data) {
+		ContentValues values = new ContentValues();
+		values.put(K_CHUNK_TRIP, tripid);
+		values.put(K_CHUNK_SEQ, seq);
+		values.put(K_CHUNK_NPOINTS, npoints);
+		values.put(K_CHUNK_T0, t0);
+		values.put(K_CHUNK_T1, t1);
+		values.put(K_CHUNK_LATHI, lathigh);
+		values.put(K_CHUNK_LATLO, latlow);
+		values.put(K_CHUNK_LGTHI, lgthigh);
+		values.put(K_CHUNK_LGTLO, lgtlow);
+		values.put(K_CHUNK_DATA, data);
+		return mDb.insert(DATA_TABLE_CHUNKS, null, values);
+	}
+
+	/**
+	 * A trip's chunks in order, positioned on the first
+	 */
+	public Cursor fetchChunksForTrip(long tripid) {
+		Cursor c = mDb.query(DATA_TABLE_CHUNKS, new String[] { K_CHUNK_SEQ,
+				K_CHUNK_NPOINTS, K_CHUNK_T0, K_CHUNK_T1, K_CHUNK_DATA },
+				K_CHUNK_TRIP + "=" + tripid, null, null, null, K_CHUNK_SEQ);
+		if (c != null) {
+			c.moveToFirst();
+		}
+		return c;
+	}
+
+	public int nextChunkSeq(long tripid) {
+		Cursor c = mDb.rawQuery("select ifnull(max(" + K_CHUNK_SEQ
+				+ ") + 1, 0) from " + DATA_TABLE_CHUNKS + " where "
+				+ K_CHUNK_TRIP + "=" + tripid, null);
+		int seq = 0;
+		if (c.moveToFirst()) {
+			seq = c.getInt(0);
+		}
+		c.close();
+		return seq;
+	}
+
+	// #### Trip level-of-detail methods ####
+
+	public long addTripLevel(long tripid, int level, float tolerance,
+			String data) {
+		ContentValues values = new ContentValues();
+		values.put(K_LEVEL_TRIP, tripid);
+		values.put(K_LEVEL_LEVEL, level);
+		values.put(K_LEVEL_TOLERANCE, tolerance);
+		values.put(K_LEVEL_DATA, data);
+		return mDb.insert(DATA_TABLE_LEVELS, null, values);
+	}
+
+	/**
+	 * A trip's stored levels, finest first
+	 */
+	public Cursor fetchTripLevels(long tripid) {
+		return mDb.query(DATA_TABLE_LEVELS, new String[] { K_LEVEL_LEVEL,
+				K_LEVEL_TOLERANCE, K_LEVEL_DATA }, K_LEVEL_TRIP + "=" + tripid,
+				null, null, null, K_LEVEL_LEVEL);
+	}
+
+	public int deleteTripLevels(long tripid) {
+		return mDb.delete(DATA_TABLE_LEVELS, K_LEVEL_TRIP + "=" + tripid,
+				null);
+	}
+
+	/**
+	 * Finished trips whose points are still stored a row at a time
+	 */
+	public Cursor fetchTripsToPack() {
+		Cursor c = mDb.rawQuery("select distinct " + K_POINT_TRIP + " from "
+				+ DATA_TABLE_COORDS + " where " + K_POINT_TRIP
+				+ " in (select " + K_TRIP_ROWID + " from " + DATA_TABLE_TRIPS
+				+ " where " + K_TRIP_STATUS + "!="
+				+ TripData.STATUS_INCOMPLETE + ")", null);
+		if (c != null) {
+			c.moveToFirst();
+		}
+		return c;
+	}
+
+	/**
+	 * The newest finished trips, at most limit of them
+	 */
+	public Cursor fetchFinishedTrips(int limit) {
+		Cursor c = mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID },
+				K_TRIP_STATUS + "!=" + TripData.STATUS_INCOMPLETE, null, null,
+				null, TRIP_LIST_ORDER, String.valueOf(limit));
+		if (c != null) {
+			c.moveToFirst();
+		}
+		return c;
+	}
+
+	/**
+	 * Finished trips whose summary columns have not been written yet, newest
+	 * first, at most limit of them
+	 */
+	public Cursor fetchTripsWithoutStats(int limit) {
+		Cursor c = mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID },
+				K_TRIP_STATUS + "!=" + TripData.STATUS_INCOMPLETE + " and "
+						+ K_TRIP_NUMPOINTS + " is null", null, null, null,
+				TRIP_LIST_ORDER, String.valueOf(limit));
+		if (c != null) {
+			c.moveToFirst();
+		}
+		return c;
+	}
+
 	// #### Trip table methods ####
 
 	/**
@@ -249,7 +708,9 @@ public class DbAdapter {
 		initialValues.put(K_TRIP_NOTE, note);
 		initialValues.put(K_TRIP_STATUS, TripData.STATUS_INCOMPLETE);
 
-		return mDb.insert(DATA_TABLE_TRIPS, null, initialValues);
+		long rowId = mDb.insert(DATA_TABLE_TRIPS, null, initialValues);
+		tripsChanged();
+		return rowId;
 	}
 
 	public long createTrip() {
@@ -264,25 +725,72 @@ public class DbAdapter {
 	 * @return true if deleted, false otherwise
 	 */
 	public boolean deleteTrip(long rowId) {
-		return mDb.delete(DATA_TABLE_TRIPS, K_TRIP_ROWID + "=" + rowId, null) > 0;
+		return tripsChanged(mDb.delete(DATA_TABLE_TRIPS, K_TRIP_ROWID + "="
+				+ rowId, null)) > 0;
 	}
 
+	// What the trip list shows, newest first; _id breaks ties so the
+	// order is total and pages can be keyed on (start, _id)
+	private static final String[] TRIP_LIST_COLUMNS = { K_TRIP_ROWID,
+			K_TRIP_PURP, K_TRIP_START, K_TRIP_FANCYSTART, K_TRIP_NOTE,
+			K_TRIP_FANCYINFO, K_TRIP_END, K_TRIP_DISTANCE, K_TRIP_STATUS,
+			K_TRIP_DURATION, K_TRIP_CO2, K_TRIP_CALORIES };
+	private static final String TRIP_LIST_ORDER = K_TRIP_START + " desc, "
+			+ K_TRIP_ROWID + " desc";
+
 	/**
 	 * Return a Cursor over the list of all notes in the database
 	 * 
 	 * @return Cursor over all trips
 	 */
 	public Cursor fetchAllTrips() {
-		Cursor c = mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID,
-				K_TRIP_PURP, K_TRIP_START, K_TRIP_FANCYSTART, K_TRIP_NOTE,
-				K_TRIP_FANCYINFO, K_TRIP_END, K_TRIP_DISTANCE, K_TRIP_STATUS },
-				null, null, null, null, "-" + K_TRIP_START);
+		Cursor c = mDb.query(DATA_TABLE_TRIPS, TRIP_LIST_COLUMNS, null, null,
+				null, null, TRIP_LIST_ORDER);
 		if (c != null && c.getCount() > 0) {
 			c.moveToFirst();
 		}
 		return c;
 	}
 
+	/**
+	 * Return a Cursor over the key of every trip in list order: just _id,
+	 * start and status, enough to count the list, give each row its id and
+	 * type, and find where any page of it starts.
+	 * 
+	 * This reads one short row per trip, so it grows with the history. That
+	 * is deliberate: ListView wants the count and stable ids up front, and a
+	 * key row is a few dozen bytes against the full row's strings and
+	 * summary. The cursor keeps its rows in one CursorWindow, so a history
+	 * too long for the window costs refills, not unbounded memory.
+	 */
+	public Cursor fetchTripKeys() {
+		return mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID,
+				K_TRIP_START, K_TRIP_STATUS }, null, null, null, null,
+				TRIP_LIST_ORDER);
+	}
+
+	/**
+	 * Return a Cursor over the newest trips, at most limit of them: the
+	 * first page of the trip list.
+	 */
+	public Cursor fetchTripsPage(int limit) {
+		return mDb.query(DATA_TABLE_TRIPS, TRIP_LIST_COLUMNS, null, null,
+				null, null, TRIP_LIST_ORDER, String.valueOf(limit));
+	}
+
+	/**
+	 * Return a Cursor over the next page of the trip list: at most limit
+	 * trips following the one keyed (start, rowId) in list order. Seeks
+	 * through the start index rather than skipping rows with an offset, so
+	 * every page costs the same however deep it is.
+	 */
+	public Cursor fetchTripsPage(double start, long rowId, int limit) {
+		String where = K_TRIP_START + "<=" + start + " and (" + K_TRIP_START
+				+ "<" + start + " or " + K_TRIP_ROWID + "<" + rowId + ")";
+		return mDb.query(DATA_TABLE_TRIPS, TRIP_LIST_COLUMNS, where, null,
+				null, null, TRIP_LIST_ORDER, String.valueOf(limit));
+	}
+
 	public Cursor fetchUnsentTrips() {
 		Cursor c = mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID },
 				K_TRIP_STATUS + "=" + TripData.STATUS_COMPLETE, null, null,
@@ -293,29 +801,56 @@ public class DbAdapter {
 		return c;
 	}
 
-	public int cleanTripsCoordsTables() {
-		int badTrips = 0;
+	/**
+	 * Remove trips left incomplete by a crash, except keepTripId (the trip
+	 * being recorded right now, or -1)
+	 */
+	public int cleanTripsCoordsTables(long keepTripId) {
+		String where = K_TRIP_STATUS + "=" + TripData.STATUS_INCOMPLETE
+				+ " and " + K_TRIP_ROWID + "!=" + keepTripId;
+		return deleteTripsWhere(where);
+	}
 
-		Cursor c = mDb.query(DATA_TABLE_TRIPS, new String[] { K_TRIP_ROWID,
-				K_TRIP_STATUS }, K_TRIP_STATUS + "="
-				+ TripData.STATUS_INCOMPLETE, null, null, null, null);
+	/**
+	 * Delete the given trips and all their points in one transaction.
+	 * 
+	 * @return the number of trips deleted
+	 */
+	public int deleteTrips(Collection<Long> tripids) {
+		if (tripids.isEmpty()) {
+			return 0;
+		}
+		return deleteTripsWhere(K_TRIP_ROWID + " in " + idList(tripids));
+	}
 
-		if (c != null && c.getCount() > 0) {
-			c.moveToFirst();
-			badTrips = c.getCount();
+	// Children first, each a single statement keyed off the same trip set
+	private int deleteTripsWhere(String where) {
+		String trips = "(select " + K_TRIP_ROWID + " from " + DATA_TABLE_TRIPS
+				+ " where " + where + ")";
+		int deleted;
+		beginTransaction();
+		try {
+			mDb.delete(DATA_TABLE_LEVELS, K_LEVEL_TRIP + " in " + trips, null);
+			mDb.delete(DATA_TABLE_CHUNKS, K_CHUNK_TRIP + " in " + trips, null);
+			mDb.delete(DATA_TABLE_COORDS, K_POINT_TRIP + " in " + trips, null);
+			deleted = tripsChanged(mDb.delete(DATA_TABLE_TRIPS, where, null));
+			setTransactionSuccessful();
+		} finally {
+			endTransaction();
+		}
+		return deleted;
+	}
 
-			while (!c.isAfterLast()) {
-				long tripid = c.getInt(0);
-				deleteAllCoordsForTrip(tripid);
-				c.moveToNext();
+	// "(1,2,3)" for an in clause; ids are numbers, so nothing to escape
+	private static String idList(Collection<Long> ids) {
+		StringBuilder sb = new StringBuilder("(");
+		for (Long id : ids) {
+			if (sb.length() > 1) {
+				sb.append(',');
 			}
+			sb.append(id.longValue());
 		}
-		c.close();
-		if (badTrips > 0) {
-			mDb.delete(DATA_TABLE_TRIPS, K_TRIP_STATUS + "="
-					+ TripData.STATUS_INCOMPLETE, null);
-		}
-		return badTrips;
+		return sb.append(')').toString();
 	}
 
 	/**
@@ -328,11 +863,13 @@ public class DbAdapter {
 	 *             if trip could not be found/retrieved
 	 */
 	public Cursor fetchTrip(long rowId) throws SQLException {
-		Cursor mCursor = mDb.query(true, DATA_TABLE_TRIPS, new String[] {
+		Cursor mCursor = mDb.query(false, DATA_TABLE_TRIPS, new String[] {
 				K_TRIP_ROWID, K_TRIP_PURP, K_TRIP_START, K_TRIP_FANCYSTART,
 				K_TRIP_NOTE, K_TRIP_LATHI, K_TRIP_LATLO, K_TRIP_LGTHI,
 				K_TRIP_LGTLO, K_TRIP_STATUS, K_TRIP_END, K_TRIP_FANCYINFO,
-				K_TRIP_DISTANCE },
+				K_TRIP_DISTANCE, K_TRIP_DURATION, K_TRIP_MOVINGTIME,
+				K_TRIP_NUMPOINTS, K_TRIP_CO2, K_TRIP_CALORIES,
+				K_TRIP_AVGSPEED, K_TRIP_MAXSPEED, K_TRIP_PAUSETIME },
 
 		K_TRIP_ROWID + "=" + rowId,
 
@@ -358,16 +895,59 @@ public class DbAdapter {
 		initialValues.put(K_TRIP_FANCYINFO, fancyinfo);
 		initialValues.put(K_TRIP_DISTANCE, distance);
 
+		return tripsChanged(mDb.update(DATA_TABLE_TRIPS, initialValues,
+				K_TRIP_ROWID + "=" + tripid, null)) > 0;
+	}
+
+	/**
+	 * Checkpoint the recorder's running totals without touching purpose,
+	 * start or notes. Does not notify TRIPS_URI: the list shows nothing of
+	 * a trip still being recorded, and this runs on every flush.
+	 */
+	public boolean updateTripSummary(long tripid, double endtime,
+			float distance, int lathigh, int latlow, int lgthigh, int lgtlow,
+			double movingtime, float maxspeed, double pausetime) {
+		ContentValues initialValues = new ContentValues();
+		initialValues.put(K_TRIP_END, endtime);
+		initialValues.put(K_TRIP_DISTANCE, distance);
+		initialValues.put(K_TRIP_LATHI, lathigh);
+		initialValues.put(K_TRIP_LATLO, latlow);
+		initialValues.put(K_TRIP_LGTHI, lgthigh);
+		initialValues.put(K_TRIP_LGTLO, lgtlow);
+		initialValues.put(K_TRIP_MOVINGTIME, movingtime);
+		initialValues.put(K_TRIP_MAXSPEED, maxspeed);
+		initialValues.put(K_TRIP_PAUSETIME, pausetime);
+
 		return mDb.update(DATA_TABLE_TRIPS, initialValues, K_TRIP_ROWID + "="
 				+ tripid, null) > 0;
 	}
 
+	/**
+	 * Store a finished trip's summary, so lists and detail screens read it
+	 * instead of working it out from the points.
+	 */
+	public boolean updateTripStats(long tripid, double duration,
+			double movingtime, int numpoints, float co2, float calories,
+			float avgspeed, float maxspeed) {
+		ContentValues initialValues = new ContentValues();
+		initialValues.put(K_TRIP_DURATION, duration);
+		initialValues.put(K_TRIP_MOVINGTIME, movingtime);
+		initialValues.put(K_TRIP_NUMPOINTS, numpoints);
+		initialValues.put(K_TRIP_CO2, co2);
+		initialValues.put(K_TRIP_CALORIES, calories);
+		initialValues.put(K_TRIP_AVGSPEED, avgspeed);
+		initialValues.put(K_TRIP_MAXSPEED, maxspeed);
+
+		return tripsChanged(mDb.update(DATA_TABLE_TRIPS, initialValues,
+				K_TRIP_ROWID + "=" + tripid, null)) > 0;
+	}
+
 	public boolean updateTripStatus(long tripid, int tripStatus) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(K_TRIP_STATUS, tripStatus);
 
-		return mDb.update(DATA_TABLE_TRIPS, initialValues, K_TRIP_ROWID + "="
-				+ tripid, null) > 0;
+		return tripsChanged(mDb.update(DATA_TABLE_TRIPS, initialValues,
+				K_TRIP_ROWID + "=" + tripid, null)) > 0;
 	}
 
 	// #### Notes table methods ####
@@ -380,14 +960,14 @@ public class DbAdapter {
 
 	public long createNote(int noteType, double noterecorded,
 			String notefancystart, String notedetails, String noteimageurl,
-			byte[] noteimagedata) {
+			String noteimagepath) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(K_NOTE_TYPE, noteType);
 		initialValues.put(K_NOTE_RECORDED, noterecorded);
 		initialValues.put(K_NOTE_FANCYSTART, notefancystart);
 		initialValues.put(K_NOTE_DETAILS, notedetails);
 		initialValues.put(K_NOTE_IMGURL, noteimageurl);
-		initialValues.put(K_NOTE_IMGDATA, noteimagedata);
+		initialValues.put(K_NOTE_IMGPATH, noteimagepath);
 
 		initialValues.put(K_NOTE_LAT, 0);
 		initialValues.put(K_NOTE_LGT, 0);
@@ -397,7 +977,9 @@ public class DbAdapter {
 
 		initialValues.put(K_NOTE_STATUS, NoteData.STATUS_INCOMPLETE);
 
-		return mDb.insert(DATA_TABLE_NOTES, null, initialValues);
+		long rowId = mDb.insert(DATA_TABLE_NOTES, null, initialValues);
+		notesChanged();
+		return rowId;
 	}
 
 	public long createNote() {
@@ -412,7 +994,8 @@ public class DbAdapter {
 	 * @return true if deleted, false otherwise
 	 */
 	public boolean deleteNote(long rowId) {
-		return mDb.delete(DATA_TABLE_NOTES, K_NOTE_ROWID + "=" + rowId, null) > 0;
+		return notesChanged(mDb.delete(DATA_TABLE_NOTES, K_NOTE_ROWID + "="
+				+ rowId, null)) > 0;
 	}
 
 	/**
@@ -424,9 +1007,9 @@ public class DbAdapter {
 		Cursor c = mDb.query(DATA_TABLE_NOTES,
 				new String[] { K_NOTE_ROWID, K_NOTE_TYPE, K_NOTE_RECORDED,
 						K_NOTE_FANCYSTART, K_NOTE_DETAILS, K_NOTE_IMGURL,
-						K_NOTE_IMGDATA, K_NOTE_LAT, K_NOTE_LGT, K_NOTE_ACC,
+						K_NOTE_IMGPATH, K_NOTE_LAT, K_NOTE_LGT, K_NOTE_ACC,
 						K_NOTE_ALT, K_NOTE_SPEED, K_NOTE_STATUS }, null, null,
-				null, null, "-" + K_NOTE_RECORDED);
+				null, null, K_NOTE_RECORDED + " desc");
 		if (c != null && c.getCount() > 0) {
 			c.moveToFirst();
 		}
@@ -444,26 +1027,68 @@ public class DbAdapter {
 	}
 
 	public int cleanNoteTables() {
-		int badNotes = 0;
+		return notesChanged(mDb.delete(DATA_TABLE_NOTES, K_NOTE_STATUS + "="
+				+ NoteData.STATUS_INCOMPLETE, null));
+	}
 
-		Cursor c = mDb.query(DATA_TABLE_NOTES, new String[] { K_NOTE_ROWID,
-				K_NOTE_STATUS }, K_NOTE_STATUS + "="
-				+ NoteData.STATUS_INCOMPLETE, null, null, null, null);
+	/**
+	 * Delete the given notes in one statement.
+	 * 
+	 * @return the number of notes deleted
+	 */
+	public int deleteNotes(Collection<Long> noteids) {
+		if (noteids.isEmpty()) {
+			return 0;
+		}
+		return notesChanged(mDb.delete(DATA_TABLE_NOTES, K_NOTE_ROWID
+				+ " in " + idList(noteids), null));
+	}
 
-		if (c != null && c.getCount() > 0) {
-			c.moveToFirst();
-			badNotes = c.getCount();
+	/**
+	 * Return a Cursor over the ids of notes still holding their photo as a
+	 * blob, from before version 24
+	 */
+	public Cursor fetchNotesWithImageData() {
+		return mDb.query(DATA_TABLE_NOTES, new String[] { K_NOTE_ROWID },
+				K_NOTE_IMGDATA + " is not null", null, null, null, null);
+	}
 
-			while (!c.isAfterLast()) {
-				c.moveToNext();
-			}
-		}
-		c.close();
-		if (badNotes > 0) {
-			mDb.delete(DATA_TABLE_NOTES, K_NOTE_STATUS + "="
-					+ NoteData.STATUS_INCOMPLETE, null);
+	/**
+	 * Return the photo blob of one note, or null if it has none. Read a row
+	 * at a time so a handful of large photos never have to fit in one
+	 * cursor window together.
+	 */
+	public byte[] fetchNoteImageData(long noteid) {
+		Cursor c = mDb.query(DATA_TABLE_NOTES, new String[] { K_NOTE_IMGDATA },
+				K_NOTE_ROWID + "=" + noteid, null, null, null, null);
+		try {
+			return c.moveToFirst() ? c.getBlob(0) : null;
+		} finally {
+			c.close();
 		}
-		return badNotes;
+	}
+
+	/**
+	 * Point a note at its photo file, and drop the blob it was copied from
+	 * 
+	 * @param noteimagepath
+	 *            file name in NoteImageStore, or null if there was no photo
+	 */
+	public boolean moveNoteImageData(long noteid, String noteimagepath) {
+		ContentValues values = new ContentValues();
+		values.putNull(K_NOTE_IMGDATA);
+		values.put(K_NOTE_IMGPATH, noteimagepath);
+		return notesChanged(mDb.update(DATA_TABLE_NOTES, values, K_NOTE_ROWID
+				+ "=" + noteid, null)) > 0;
+	}
+
+	/**
+	 * Return a Cursor over the image file names still referenced by a note
+	 */
+	public Cursor fetchNoteImagePaths() {
+		return mDb.query(true, DATA_TABLE_NOTES,
+				new String[] { K_NOTE_IMGPATH }, K_NOTE_IMGPATH
+						+ " is not null", null, null, null, null, null);
 	}
 
 	/**
@@ -476,10 +1101,10 @@ public class DbAdapter {
 	 *             if note could not be found/retrieved
 	 */
 	public Cursor fetchNote(long rowId) throws SQLException {
-		Cursor mCursor = mDb.query(true, DATA_TABLE_NOTES,
+		Cursor mCursor = mDb.query(false, DATA_TABLE_NOTES,
 				new String[] { K_NOTE_ROWID, K_NOTE_TYPE, K_NOTE_RECORDED,
 						K_NOTE_FANCYSTART, K_NOTE_DETAILS, K_NOTE_IMGURL,
-						K_NOTE_IMGDATA, K_NOTE_LAT, K_NOTE_LGT, K_NOTE_ACC,
+						K_NOTE_IMGPATH, K_NOTE_LAT, K_NOTE_LGT, K_NOTE_ACC,
 						K_NOTE_ALT, K_NOTE_SPEED, K_NOTE_STATUS },
 
 				K_NOTE_ROWID + "=" + rowId,
@@ -493,7 +1118,7 @@ public class DbAdapter {
 
 	public boolean updateNote(long noteid, double noterecorded,
 			String notefancystart, int notetype, String notedetails,
-			String noteimgurl, byte[] noteimgdata, int latitude, int longitude,
+			String noteimgurl, String noteimgpath, int latitude, int longitude,
 			float accuracy, double altitude, float speed) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(K_NOTE_RECORDED, noterecorded);
@@ -506,17 +1131,17 @@ public class DbAdapter {
 		initialValues.put(K_NOTE_TYPE, notetype);
 		initialValues.put(K_NOTE_DETAILS, notedetails);
 		initialValues.put(K_NOTE_IMGURL, noteimgurl);
-		initialValues.put(K_NOTE_IMGDATA, noteimgdata);
+		initialValues.put(K_NOTE_IMGPATH, noteimgpath);
 
-		return mDb.update(DATA_TABLE_NOTES, initialValues, K_NOTE_ROWID + "="
-				+ noteid, null) > 0;
+		return notesChanged(mDb.update(DATA_TABLE_NOTES, initialValues,
+				K_NOTE_ROWID + "=" + noteid, null)) > 0;
 	}
 
 	public boolean updateNoteStatus(long noteid, int noteStatus) {
 		ContentValues initialValues = new ContentValues();
 		initialValues.put(K_NOTE_STATUS, noteStatus);
 
-		return mDb.update(DATA_TABLE_NOTES, initialValues, K_NOTE_ROWID + "="
-				+ noteid, null) > 0;
+		return notesChanged(mDb.update(DATA_TABLE_NOTES, initialValues,
+				K_NOTE_ROWID + "=" + noteid, null)) > 0;
 	}
 }
@@ -0,0 +1,131 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+/**
+ * Runs a DbAdapter query on a background thread and keeps the result
+ * current. The cursor watches the given uri, which DbAdapter notifies on
+ * every write to the table behind it: a started loader re-queries at once,
+ * a stopped one (its tab in the background) re-queries when started again,
+ * and is otherwise handed back its last cursor without touching SQLite.
+ */
+public abstract class DbCursorLoader extends AsyncTaskLoader<Cursor> {
+
+	private final Uri mUri;
+	private final ForceLoadContentObserver mObserver;
+	private Cursor mCursor;
+
+	public DbCursorLoader(Context context, Uri uri) {
+		super(context);
+		mUri = uri;
+		mObserver = new ForceLoadContentObserver();
+	}
+
+	/**
+	 * The query to run, against an adapter already opened for reading.
+	 */
+	protected abstract Cursor query(DbAdapter db);
+
+	@Override
+	public Cursor loadInBackground() {
+		DbAdapter db = new DbAdapter(getContext());
+		db.openReadOnly();
+		try {
+			Cursor cursor = query(db);
+			if (cursor != null) {
+				// Fill the window here rather than on the first bind
+				cursor.getCount();
+				cursor.setNotificationUri(getContext().getContentResolver(),
+						mUri);
+				cursor.registerContentObserver(mObserver);
+			}
+			return cursor;
+		} finally {
+			db.close();
+		}
+	}
+
+	@Override
+	public void deliverResult(Cursor cursor) {
+		if (isReset()) {
+			if (cursor != null) {
+				cursor.close();
+			}
+			return;
+		}
+		Cursor old = mCursor;
+		mCursor = cursor;
+		if (isStarted()) {
+			super.deliverResult(cursor);
+		}
+		if (old != null && old != cursor && !old.isClosed()) {
+			old.close();
+		}
+	}
+
+	@Override
+	protected void onStartLoading() {
+		if (mCursor != null) {
+			deliverResult(mCursor);
+		}
+		if (takeContentChanged() || mCursor == null) {
+			forceLoad();
+		}
+	}
+
+	@Override
+	protected void onStopLoading() {
+		cancelLoad();
+	}
+
+	@Override
+	public void onCanceled(Cursor cursor) {
+		if (cursor != null && !cursor.isClosed()) {
+			cursor.close();
+		}
+	}
+
+	@Override
+	protected void onReset() {
+		super.onReset();
+		onStopLoading();
+		if (mCursor != null && !mCursor.isClosed()) {
+			mCursor.close();
+		}
+		mCursor = null;
+	}
+}
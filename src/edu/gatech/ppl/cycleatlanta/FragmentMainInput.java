@@ -2,8 +2,6 @@ package edu.gatech.ppl.cycleatlanta;
 
 import java.text.SimpleDateFormat;
 import java.util.TimeZone;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import android.app.AlertDialog;
 import android.content.ComponentName;
@@ -12,6 +10,7 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.location.Location;
+import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
 import android.os.Handler;
@@ -26,22 +25,17 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.GooglePlayServicesClient.ConnectionCallbacks;
-import com.google.android.gms.common.GooglePlayServicesClient.OnConnectionFailedListener;
-import com.google.android.gms.location.LocationClient;
-import com.google.android.gms.location.LocationListener;
-import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.GoogleMap.OnMyLocationButtonClickListener;
+import com.google.android.gms.maps.LocationSource;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.UiSettings;
 import com.google.android.gms.maps.model.LatLng;
 
-public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
-		OnConnectionFailedListener, LocationListener,
-		OnMyLocationButtonClickListener {
+public class FragmentMainInput extends Fragment implements LocationListener,
+		LocationSource, OnMyLocationButtonClickListener,
+		RecordingStatusListener {
 
 	public static final String ARG_SECTION_NUMBER = "section_number";
 
@@ -49,7 +43,6 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 	TripData trip;
 	NoteData note;
 	boolean isRecording = false;
-	Timer timer;
 	float curDistance;
 
 	TextView txtDuration;
@@ -64,11 +57,6 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 
 	// Need handler for callbacks to the UI thread
 	final Handler mHandler = new Handler();
-	final Runnable mUpdateTimer = new Runnable() {
-		public void run() {
-			updateTimer();
-		}
-	};
 
 	private final static int MENU_USER_INFO = 0;
 	private final static int MENU_HELP = 1;
@@ -79,12 +67,10 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 	DbAdapter mDb;
 	GoogleMap map;
 	UiSettings mUiSettings;
-	private LocationClient mLocationClient;
-
-	private static final LocationRequest REQUEST = LocationRequest.create()
-			.setInterval(5000) // 5 seconds
-			.setFastestInterval(16) // 16ms = 60fps
-			.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
+	// The map shares the recorder's location subscription through the hub,
+	// throttled to what a blue dot needs
+	private static final long MAP_LOCATION_INTERVAL = 1000;
+	private OnLocationChangedListener mMapLocationListener;
 
 	public FragmentMainInput() {
 	}
@@ -351,9 +337,7 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 					// Should never get here, right?
 					break;
 				}
-				rs.setListener((FragmentMainInput) getActivity()
-						.getSupportFragmentManager().findFragmentByTag(
-								"android:switcher:" + R.id.pager + ":0"));
+				rs.addStatusListener(FragmentMainInput.this);
 				getActivity().unbindService(this);
 			}
 		};
@@ -408,10 +392,7 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 						// trip.numpoints > 0
 						if (trip.numpoints > 0) {
 							// Handle pause time gracefully
-							if (trip.pauseStartedAt > 0) {
-								trip.totalPauseTime += (System
-										.currentTimeMillis() - trip.pauseStartedAt);
-							}
+							trip.endPause(System.currentTimeMillis());
 							if (trip.totalPauseTime > 0) {
 								trip.endTime = System.currentTimeMillis()
 										- trip.totalPauseTime;
@@ -460,34 +441,39 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 		alert.show();
 	}
 
-	void updateTimer() {
+	void updateTimer(double elapsed) {
 		if (trip != null && isRecording) {
-			double dd = System.currentTimeMillis() - trip.startTime
-					- trip.totalPauseTime;
-
-			txtDuration.setText(sdf.format(dd));
+			txtDuration.setText(sdf.format(elapsed));
 
 			// double avgSpeed = 3600.0 * 0.6212 * this.curDistance / dd;
 			// txtAvgSpeed.setText(String.format("%1.1f mph", avgSpeed));
 		}
 	}
 
+	/**
+	 * Implementation of {@link RecordingStatusListener}: the service sends
+	 * stats with every fix and once a second for the duration.
+	 */
+	@Override
+	public void onRecordingStats(RecordingStats stats) {
+		updateStatus(stats.numpoints, stats.distance, stats.curSpeed,
+				stats.maxSpeed);
+		updateTimer(stats.elapsed);
+	}
+
+	// Don't do pointless UI updates if the activity isn't being shown.
+	@Override
+	public boolean isStatusVisible() {
+		return isResumed() && txtDuration != null;
+	}
+
 	// onResume is called whenever this activity comes to foreground.
-	// Use a timer to update the trip duration.
 	@Override
 	public void onResume() {
 		super.onResume();
 
 		Log.v("Jason", "Cycle: MainInput onResume");
 
-		timer = new Timer();
-		timer.scheduleAtFixedRate(new TimerTask() {
-			@Override
-			public void run() {
-				mHandler.post(mUpdateTimer);
-			}
-		}, 0, 1000); // every second
-
 		setUpMapIfNeeded();
 		if (map != null) {
 			// Keep the UI Settings state in sync with the checkboxes.
@@ -500,8 +486,10 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 			mUiSettings.setTiltGesturesEnabled(true);
 			mUiSettings.setRotateGesturesEnabled(true);
 		}
-		setUpLocationClientIfNeeded();
-		mLocationClient.connect();
+		// Network fixes stand in indoors, so the map and notes still know
+		// roughly where the rider is
+		LocationHub.get(getActivity()).subscribe(this, MAP_LOCATION_INTERVAL,
+				0, true, mHandler);
 	}
 
 	// Don't do pointless UI updates if the activity isn't being shown.
@@ -510,11 +498,7 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 		super.onPause();
 		Log.v("Jason", "Cycle: MainInput onPause");
 		// Background GPS.
-		if (timer != null)
-			timer.cancel();
-		if (mLocationClient != null) {
-			mLocationClient.disconnect();
-		}
+		LocationHub.get(getActivity()).unsubscribe(this);
 	}
 
 	@Override
@@ -543,6 +527,7 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 					.getMap();
 			// Check if we were successful in obtaining the map.
 			if (map != null) {
+				map.setLocationSource(this);
 				map.setMyLocationEnabled(true);
 				map.setOnMyLocationButtonClickListener(this);
 				mUiSettings = map.getUiSettings();
@@ -581,13 +566,6 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 	// }
 	// }
 
-	private void setUpLocationClientIfNeeded() {
-		if (mLocationClient == null) {
-			mLocationClient = new LocationClient(getActivity(), this, // ConnectionCallbacks
-					this); // OnConnectionFailedListener
-		}
-	}
-
 	/**
 	 * Implementation of {@link LocationListener}.
 	 */
@@ -595,6 +573,9 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 	public void onLocationChanged(Location location) {
 		// onMyLocationButtonClick();
 		currentLocation = location;
+		if (mMapLocationListener != null && location != null) {
+			mMapLocationListener.onLocationChanged(location);
+		}
 
 		// Log.v("Jason", "Current Location: "+currentLocation);
 
@@ -611,30 +592,30 @@ public class FragmentMainInput extends Fragment implements ConnectionCallbacks,
 		}
 	}
 
-	/**
-	 * Callback called when connected to GCore. Implementation of
-	 * {@link ConnectionCallbacks}.
-	 */
 	@Override
-	public void onConnected(Bundle connectionHint) {
-		mLocationClient.requestLocationUpdates(REQUEST, this); // LocationListener
+	public void onProviderDisabled(String provider) {
+	}
+
+	@Override
+	public void onProviderEnabled(String provider) {
 	}
 
-	/**
-	 * Callback called when disconnected from GCore. Implementation of
-	 * {@link ConnectionCallbacks}.
-	 */
 	@Override
-	public void onDisconnected() {
-		// Do nothing
+	public void onStatusChanged(String provider, int status, Bundle extras) {
 	}
 
 	/**
-	 * Implementation of {@link OnConnectionFailedListener}.
+	 * Implementation of {@link LocationSource}: the map's my-location layer
+	 * gets the fixes this fragment already receives from the hub.
 	 */
 	@Override
-	public void onConnectionFailed(ConnectionResult result) {
-		// Do nothing
+	public void activate(OnLocationChangedListener listener) {
+		mMapLocationListener = listener;
+	}
+
+	@Override
+	public void deactivate() {
+		mMapLocationListener = null;
 	}
 
 	@Override
@@ -3,13 +3,16 @@ package edu.gatech.ppl.cycleatlanta;
 import java.util.ArrayList;
 
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.graphics.Color;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
 import android.util.Log;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -19,7 +22,6 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.CursorAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 
@@ -35,7 +37,7 @@ public class FragmentSavedNotesSection extends Fragment {
 
 	Long storedID;
 
-	Cursor allNotes;
+	private static final int NOTES_LOADER = 0;
 
 	public SavedNotesAdapter sna;
 
@@ -54,19 +56,9 @@ public class FragmentSavedNotesSection extends Fragment {
 		listSavedNotes = (ListView) rootView
 				.findViewById(R.id.listViewSavedNotes);
 		populateNoteList(listSavedNotes);
-		
-		final DbAdapter mDb = new DbAdapter(getActivity());
-		mDb.open();
-
-		// Clean up any bad notes from crashes
-		int cleanedNotes = mDb.cleanNoteTables();
-		if (cleanedNotes > 0) {
-			Toast.makeText(getActivity(),
-					"" + cleanedNotes + " bad notes(s) removed.",
-					Toast.LENGTH_SHORT).show();
-		}
-		mDb.close();
-		
+
+		new CleanUpTask(getActivity()).execute();
+
 		noteIdArray.clear();
 
 //		listSavedNotes.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
@@ -218,8 +210,9 @@ public class FragmentSavedNotesSection extends Fragment {
 			saveMenuItemDelete.setEnabled(false);
 			saveMenuItemUpload = menu.getItem(1);
 
+			Cursor allNotes = sna.getCursor();
 			int flag = 1;
-			for (int i = 0; i < listSavedNotes.getCount(); i++) {
+			for (int i = 0; allNotes != null && i < allNotes.getCount(); i++) {
 				allNotes.moveToPosition(i);
 				flag = flag
 						* (allNotes.getInt(allNotes
@@ -246,9 +239,7 @@ public class FragmentSavedNotesSection extends Fragment {
 			switch (item.getItemId()) {
 			case R.id.action_delete_saved_notes:
 				// delete selected notes
-				for (int i = 0; i < noteIdArray.size(); i++) {
-					deleteNote(noteIdArray.get(i));
-				}
+				deleteNotes(noteIdArray);
 				mode.finish(); // Action picked, so close the CAB
 				return true;
 			case R.id.action_upload_saved_notes:
@@ -281,31 +272,21 @@ public class FragmentSavedNotesSection extends Fragment {
 		}
 	};
 
+	// The cursor arrives from the loader; until then the list is empty
 	void populateNoteList(ListView lv) {
-		// Get list from the real phone database. W00t!
-		final DbAdapter mDb = new DbAdapter(getActivity());
-		mDb.open();
+		String[] from = new String[] { "notetype", "noterecorded",
+				"notestatus" };
+		int[] to = new int[] { R.id.TextViewType, R.id.TextViewStart };
 
-		try {
-			allNotes = mDb.fetchAllNotes();
+		sna = new SavedNotesAdapter(getActivity(),
+				R.layout.saved_notes_list_item, null, from, to, 0);
 
-			String[] from = new String[] { "notetype", "noterecorded",
-					"notestatus" };
-			int[] to = new int[] { R.id.TextViewType, R.id.TextViewStart };
-
-			sna = new SavedNotesAdapter(getActivity(),
-					R.layout.saved_notes_list_item, allNotes, from, to,
-					CursorAdapter.FLAG_REGISTER_CONTENT_OBSERVER);
-
-			lv.setAdapter(sna);
-		} catch (SQLException sqle) {
-			// Do nothing, for now!
-		}
-		mDb.close();
+		lv.setAdapter(sna);
 
 		lv.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 			public void onItemClick(AdapterView<?> parent, View v, int pos,
 					long id) {
+				Cursor allNotes = sna.getCursor();
 				allNotes.moveToPosition(pos);
 				if (mActionModeNote == null) {
 					if (allNotes.getInt(allNotes.getColumnIndex("notestatus")) == 2) {
@@ -348,6 +329,63 @@ public class FragmentSavedNotesSection extends Fragment {
 		registerForContextMenu(lv);
 	}
 
+	@Override
+	public void onActivityCreated(Bundle savedInstanceState) {
+		super.onActivityCreated(savedInstanceState);
+		getLoaderManager().initLoader(NOTES_LOADER, null, mNotesCallbacks);
+	}
+
+	private LoaderManager.LoaderCallbacks<Cursor> mNotesCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+		@Override
+		public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+			return new DbCursorLoader(getActivity(), DbAdapter.NOTES_URI) {
+				@Override
+				protected Cursor query(DbAdapter db) {
+					return db.fetchAllNotes();
+				}
+			};
+		}
+
+		@Override
+		public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+			sna.swapCursor(data);
+		}
+
+		@Override
+		public void onLoaderReset(Loader<Cursor> loader) {
+			sna.swapCursor(null);
+		}
+	};
+
+	// Clean up any bad notes from crashes, and their photos. Any change
+	// reaches the list through its loader.
+	private static class CleanUpTask extends AsyncTask<Void, Void, Integer> {
+		private final Context mCtx;
+
+		CleanUpTask(Context ctx) {
+			mCtx = ctx.getApplicationContext();
+		}
+
+		@Override
+		protected Integer doInBackground(Void... params) {
+			DbAdapter mDb = new DbAdapter(mCtx);
+			mDb.open();
+			int cleanedNotes = mDb.cleanNoteTables();
+			NoteImageStore.sweep(mCtx, mDb);
+			mDb.close();
+			return cleanedNotes;
+		}
+
+		@Override
+		protected void onPostExecute(Integer cleanedNotes) {
+			if (cleanedNotes > 0) {
+				Toast.makeText(mCtx,
+						"" + cleanedNotes + " bad notes(s) removed.",
+						Toast.LENGTH_SHORT).show();
+			}
+		}
+	}
+
 	private void buildAlertMessageUnuploadedNoteClicked(final long position) {
 		final AlertDialog.Builder builder = new AlertDialog.Builder(
 				getActivity());
@@ -376,22 +414,18 @@ public class FragmentSavedNotesSection extends Fragment {
 
 	private void retryNoteUpload(long noteId) {
 		NoteUploader uploader = new NoteUploader(getActivity());
-		FragmentSavedNotesSection f3 = (FragmentSavedNotesSection) getActivity()
-				.getSupportFragmentManager().findFragmentByTag(
-						"android:switcher:" + R.id.pager + ":2");
 		uploader.setSavedNotesAdapter(sna);
-		uploader.setFragmentSavedNotesSection(f3);
-		uploader.setListView(listSavedNotes);
 		uploader.execute();
 	}
 
-	private void deleteNote(long noteId) {
+	// One statement for the whole selection; the loader then refreshes the
+	// list once
+	private void deleteNotes(ArrayList<Long> noteIds) {
 		DbAdapter mDbHelper = new DbAdapter(getActivity());
 		mDbHelper.open();
-		mDbHelper.deleteNote(noteId);
+		mDbHelper.deleteNotes(noteIds);
+		NoteImageStore.sweep(getActivity(), mDbHelper);
 		mDbHelper.close();
-		listSavedNotes.invalidate();
-		populateNoteList(listSavedNotes);
 	}
 
 	// show edit button and hidden delete button
@@ -399,7 +433,6 @@ public class FragmentSavedNotesSection extends Fragment {
 	public void onResume() {
 		super.onResume();
 		Log.v("Jason", "Cycle: SavedNotes onResume");
-		populateNoteList(listSavedNotes);
 	}
 
 	@Override
@@ -3,13 +3,16 @@ package edu.gatech.ppl.cycleatlanta;
 import java.util.ArrayList;
 
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
-import android.database.SQLException;
 import android.graphics.Color;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.Loader;
 import android.util.Log;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -19,7 +22,6 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
-import android.widget.CursorAdapter;
 import android.widget.ListView;
 import android.widget.Toast;
 
@@ -35,7 +37,7 @@ public class FragmentSavedTripsSection extends Fragment {
 
 	Long storedID;
 
-	Cursor allTrips;
+	private static final int TRIPS_LOADER = 0;
 
 	public SavedTripsAdapter sta;
 
@@ -54,19 +56,9 @@ public class FragmentSavedTripsSection extends Fragment {
 		listSavedTrips = (ListView) rootView
 				.findViewById(R.id.listViewSavedTrips);
 		populateTripList(listSavedTrips);
-		
-		final DbAdapter mDb = new DbAdapter(getActivity());
-		mDb.open();
-
-		// Clean up any bad trips & coords from crashes
-		int cleanedTrips = mDb.cleanTripsCoordsTables();
-		if (cleanedTrips > 0) {
-			Toast.makeText(getActivity(),
-					"" + cleanedTrips + " bad trip(s) removed.",
-					Toast.LENGTH_SHORT).show();
-		}
-		mDb.close();
-		
+
+		new CleanUpTask(getActivity()).execute();
+
 		tripIdArray.clear();
 
 //		listSavedTrips.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
@@ -218,16 +210,11 @@ public class FragmentSavedTripsSection extends Fragment {
 			saveMenuItemDelete.setEnabled(false);
 			saveMenuItemUpload = menu.getItem(1);
 
+			// The unsent trip comes with the list from its loader
 			int flag = 1;
-			for (int i = 0; i < listSavedTrips.getCount(); i++) {
-				allTrips.moveToPosition(i);
-				flag = flag
-						* (allTrips.getInt(allTrips.getColumnIndex("status")) - 1);
-				if (flag == 0) {
-					storedID = allTrips.getLong(allTrips.getColumnIndex("_id"));
-					Log.v("Jason", "" + storedID);
-					break;
-				}
+			if (storedID != null) {
+				Log.v("Jason", "" + storedID);
+				flag = 0;
 			}
 			if (flag == 1) {
 				saveMenuItemUpload.setEnabled(false);
@@ -245,9 +232,7 @@ public class FragmentSavedTripsSection extends Fragment {
 			switch (item.getItemId()) {
 			case R.id.action_delete_saved_trips:
 				// delete selected trips
-				for (int i = 0; i < tripIdArray.size(); i++) {
-					deleteTrip(tripIdArray.get(i));
-				}
+				new DeleteTripsTask(getActivity(), tripIdArray).execute();
 				mode.finish(); // Action picked, so close the CAB
 				return true;
 			case R.id.action_upload_saved_trips:
@@ -280,47 +265,36 @@ public class FragmentSavedTripsSection extends Fragment {
 		}
 	};
 
+	// The first page arrives from the loader, the rest from the adapter as
+	// the list scrolls; until then the list is empty
 	void populateTripList(ListView lv) {
-		// Get list from the real phone database. W00t!
-		final DbAdapter mDb = new DbAdapter(getActivity());
-		mDb.open();
-
-		try {
-			allTrips = mDb.fetchAllTrips();
+		sta = new SavedTripsAdapter(getActivity());
 
-			String[] from = new String[] { "purp", "fancystart", "fancyinfo",
-					"endtime", "start", "distance", "status" };
-			int[] to = new int[] { R.id.TextViewPurpose, R.id.TextViewStart,
-					R.id.TextViewInfo };
-
-			sta = new SavedTripsAdapter(getActivity(),
-					R.layout.saved_trips_list_item, allTrips, from, to,
-					CursorAdapter.FLAG_REGISTER_CONTENT_OBSERVER);
-
-			lv.setAdapter(sta);
-		} catch (SQLException sqle) {
-			// Do nothing, for now!
-		}
-		mDb.close();
+		lv.setAdapter(sta);
 
 		lv.setOnItemClickListener(new AdapterView.OnItemClickListener() {
 			public void onItemClick(AdapterView<?> parent, View v, int pos,
 					long id) {
-				allTrips.moveToPosition(pos);
+				int status = sta.getStatus(pos);
 				if (mActionMode == null) {
-					if (allTrips.getInt(allTrips.getColumnIndex("status")) == 2) {
+					if (status == 2) {
 						Intent i = new Intent(getActivity(),
 								TripMapActivity.class);
 						i.putExtra("showtrip", id);
 						startActivity(i);
-					} else if (allTrips.getInt(allTrips
-							.getColumnIndex("status")) == 1) {
+					} else if (status == 1) {
 						// Toast.makeText(getActivity(), "Unsent",
 						// Toast.LENGTH_SHORT).show();
 						buildAlertMessageUnuploadedTripClicked(id);
 
 						// Log.v("Jason",
 						// ""+allTrips.getLong(allTrips.getColumnIndex("_id")));
+					} else if (status == TripData.STATUS_RECOVERED) {
+						// Ask for its purpose and notes, like any other trip
+						Intent i = new Intent(getActivity(),
+								TripPurposeActivity.class);
+						i.putExtra(TripPurposeActivity.EXTRA_RECOVERED_TRIP, id);
+						startActivity(i);
 					}
 
 				} else {
@@ -348,6 +322,87 @@ public class FragmentSavedTripsSection extends Fragment {
 		registerForContextMenu(lv);
 	}
 
+	@Override
+	public void onActivityCreated(Bundle savedInstanceState) {
+		super.onActivityCreated(savedInstanceState);
+		getLoaderManager().initLoader(TRIPS_LOADER, null, mTripsCallbacks);
+	}
+
+	private LoaderManager.LoaderCallbacks<Cursor> mTripsCallbacks = new LoaderManager.LoaderCallbacks<Cursor>() {
+		@Override
+		public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+			return new TripsLoader(getActivity());
+		}
+
+		@Override
+		public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+			storedID = ((TripsLoader) loader).unsentTripId;
+			sta.setKeys(data);
+			if (mActionMode != null) {
+				mActionMode.invalidate();
+			}
+		}
+
+		@Override
+		public void onLoaderReset(Loader<Cursor> loader) {
+			storedID = null;
+			sta.setKeys(null);
+		}
+	};
+
+	// The trips' keys for the list, plus the unsent trip the upload action
+	// offers, both read off the UI thread whenever the trips change
+	private static class TripsLoader extends DbCursorLoader {
+		volatile Long unsentTripId;
+
+		TripsLoader(Context ctx) {
+			super(ctx, DbAdapter.TRIPS_URI);
+		}
+
+		@Override
+		protected Cursor query(DbAdapter db) {
+			Long unsent = null;
+			Cursor c = db.fetchUnsentTrips();
+			if (c != null) {
+				if (c.getCount() > 0) {
+					unsent = c.getLong(0);
+				}
+				c.close();
+			}
+			unsentTripId = unsent;
+			return db.fetchTripKeys();
+		}
+	}
+
+	// Rescue a trip whose recorder died, then clean up any other bad trips &
+	// coords from crashes. Any change reaches the list through its loader.
+	private static class CleanUpTask extends AsyncTask<Void, Void, int[]> {
+		private final Context mCtx;
+
+		CleanUpTask(Context ctx) {
+			mCtx = ctx.getApplicationContext();
+		}
+
+		@Override
+		protected int[] doInBackground(Void... params) {
+			int recovered = TripJournal.recover(mCtx) >= 0 ? 1 : 0;
+			int cleanedTrips = TripJournal.cleanUpTrips(mCtx);
+			return new int[] { recovered, cleanedTrips };
+		}
+
+		@Override
+		protected void onPostExecute(int[] result) {
+			if (result[0] > 0) {
+				Toast.makeText(mCtx, "Recovered an unfinished trip.",
+						Toast.LENGTH_SHORT).show();
+			}
+			if (result[1] > 0) {
+				Toast.makeText(mCtx, "" + result[1] + " bad trip(s) removed.",
+						Toast.LENGTH_SHORT).show();
+			}
+		}
+	}
+
 	private void buildAlertMessageUnuploadedTripClicked(final long position) {
 		final AlertDialog.Builder builder = new AlertDialog.Builder(
 				getActivity());
@@ -376,23 +431,31 @@ public class FragmentSavedTripsSection extends Fragment {
 
 	private void retryTripUpload(long tripId) {
 		TripUploader uploader = new TripUploader(getActivity());
-		FragmentSavedTripsSection f2 = (FragmentSavedTripsSection) getActivity()
-				.getSupportFragmentManager().findFragmentByTag(
-						"android:switcher:" + R.id.pager + ":1");
 		uploader.setSavedTripsAdapter(sta);
-		uploader.setFragmentSavedTripsSection(f2);
-		uploader.setListView(listSavedTrips);
 		uploader.execute();
 	}
 
-	private void deleteTrip(long tripId) {
-		DbAdapter mDbHelper = new DbAdapter(getActivity());
-		mDbHelper.open();
-		mDbHelper.deleteAllCoordsForTrip(tripId);
-		mDbHelper.deleteTrip(tripId);
-		mDbHelper.close();
-		listSavedTrips.invalidate();
-		populateTripList(listSavedTrips);
+	// One transaction for the whole selection, off the UI thread; the
+	// loader then refreshes the list once
+	private static class DeleteTripsTask extends AsyncTask<Void, Void, Void> {
+		private final Context mCtx;
+		private final ArrayList<Long> mTripIds;
+
+		DeleteTripsTask(Context ctx, ArrayList<Long> tripIds) {
+			mCtx = ctx.getApplicationContext();
+			// The selection is cleared as the action mode closes
+			mTripIds = new ArrayList<Long>(tripIds);
+		}
+
+		@Override
+		protected Void doInBackground(Void... params) {
+			DbAdapter mDbHelper = new DbAdapter(mCtx);
+			mDbHelper.open();
+			mDbHelper.deleteTrips(mTripIds);
+			mDbHelper.close();
+			TripThumbnails.delete(mCtx, mTripIds);
+			return null;
+		}
 	}
 
 	// show edit button and hidden delete button
@@ -400,7 +463,6 @@ public class FragmentSavedTripsSection extends Fragment {
 	public void onResume() {
 		super.onResume();
 		Log.v("Jason", "Cycle: SavedTrips onResume");
-		populateTripList(listSavedTrips);
 	}
 
 	@Override
@@ -413,6 +475,7 @@ public class FragmentSavedTripsSection extends Fragment {
 	public void onDestroyView() {
 		super.onDestroyView();
 		Log.v("Jason", "Cycle: SavedTrips onDestroyView");
+		sta.release();
 	}
 
 	/* Creates the menu items */
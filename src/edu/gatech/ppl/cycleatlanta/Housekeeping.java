@@ -0,0 +1,88 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.os.Process;
+
+/**
+ * Upkeep of stored data left over from a crash or an older version:
+ * recover a dead recorder's journal, pack trips still stored a row per
+ * point, move old note photos out of the database, and fill in summaries
+ * and thumbnails. Runs on a low-priority thread of its own, so it never
+ * queues ahead of the recorder's fixes and flushes.
+ */
+final class Housekeeping {
+	private static boolean sStarted;
+	// A single thread, so no two passes ever work on the same trips
+	private static final ExecutorService sExecutor = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					return new Thread(new Runnable() {
+						public void run() {
+							Process.setThreadPriority(
+									Process.THREAD_PRIORITY_BACKGROUND);
+							r.run();
+						}
+					}, "Housekeeping");
+				}
+			});
+
+	private Housekeeping() {
+	}
+
+	/**
+	 * Queue the upkeep, once per process. The recording service calls this
+	 * every time it is created, which can be often as screens bind to it
+	 * and unbind; a second pass would only rework the same trips.
+	 */
+	static synchronized void start(Context ctx) {
+		if (sStarted) {
+			return;
+		}
+		sStarted = true;
+		final Context app = ctx.getApplicationContext();
+		sExecutor.execute(new Runnable() {
+			public void run() {
+				TripJournal.recover(app);
+				TrackStore.packAll(app);
+				NoteImageStore.migrate(app);
+				TripStats.backfill(app);
+				TripThumbnails.backfill(app);
+			}
+		});
+	}
+}
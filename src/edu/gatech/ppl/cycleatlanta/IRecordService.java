@@ -40,6 +40,10 @@ public interface IRecordService {
 
 	public long finishRecording(); // returns trip-id
 
+	// Run r on the UI thread once everything the recorder has queued so
+	// far, such as a finished trip's last points, is on disk
+	public void runWhenSaved(Runnable r);
+
 	public long getCurrentTrip(); // returns trip-id
 
 	public void pauseRecording();
@@ -48,5 +52,19 @@ public interface IRecordService {
 
 	public void reset();
 
-	public void setListener(FragmentMainInput mia);
+	public void setFlushPolicy(PointWriteBuffer.FlushPolicy policy);
+
+	public void setSamplingPolicy(SamplingPolicy policy);
+
+	public void setLocationFeed(LocationFeed feed);
+
+	public void setAutoPause(boolean enabled);
+
+	public boolean isAutoPaused();
+
+	public void addStatusListener(RecordingStatusListener listener);
+
+	public void removeStatusListener(RecordingStatusListener listener);
+
+	public void setStatusRate(float perSecond); // max deliveries per second
 }
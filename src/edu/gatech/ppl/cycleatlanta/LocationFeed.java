@@ -0,0 +1,51 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.location.LocationListener;
+import android.os.Looper;
+
+/**
+ * Where RecordingService gets its fixes from: the GPS on a real ride, or a
+ * recorded track replayed for testing. Mirrors the LocationManager calls the
+ * service used to make directly.
+ */
+public interface LocationFeed {
+	// Deliver fixes to listener on looper, at most one per minTime ms and
+	// minDistance meters. Calling again changes the rate.
+	public void requestUpdates(long minTime, float minDistance,
+			LocationListener listener, Looper looper);
+
+	public void removeUpdates(LocationListener listener);
+
+	public long currentTimeMillis(); // the clock the fixes are stamped with
+}
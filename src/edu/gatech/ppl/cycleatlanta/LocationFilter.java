@@ -0,0 +1,166 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.location.Location;
+
+/**
+ * Cleans up raw GPS fixes before they reach the trip stats or the database.
+ * Fixes that are too inaccurate, or that would need an implausible speed to
+ * get to from the last good fix ("teleports"), are rejected outright. The
+ * rest are smoothed with a constant-velocity Kalman filter, one per axis, in
+ * a local east/north frame measured in meters.
+ */
+class LocationFilter {
+	static final double EARTH_RADIUS = 6371009.0; // meters
+
+	static final float MAX_ACCURACY = 50.0f; // meters
+	static final float MAX_SPEED = 20.0f; // m/s, about 45 mph
+	static final double ACCEL_NOISE = 1.0; // m/s^2, how hard a bike changes pace
+	static final long MAX_GAP = 30000; // ms; restart the filter after a gap
+	static final int MAX_REJECTS = 10; // in a row, before we trust GPS again
+
+	private boolean initialized;
+	private double originLat, originLgt, metersPerDegLat, metersPerDegLgt;
+	private long lastTime;
+	private float lastAccuracy;
+
+	// State and covariance, shared by both axes since they see the same noise
+	private double x, vx, y, vy;
+	private double p00, p01, p11;
+
+	private int accepted, rejected, rejectsInARow;
+
+	public void reset() {
+		initialized = false;
+		accepted = rejected = rejectsInARow = 0;
+	}
+
+	/**
+	 * Returns a smoothed copy of the fix, or null if it should be dropped.
+	 */
+	public Location filter(Location loc) {
+		if (loc.getAccuracy() > MAX_ACCURACY) {
+			return reject();
+		}
+
+		long dtMs = loc.getTime() - lastTime;
+		if (!initialized || dtMs > MAX_GAP || rejectsInARow >= MAX_REJECTS) {
+			start(loc);
+			return accept(loc);
+		}
+		if (dtMs <= 0) {
+			return reject(); // duplicate or out of order
+		}
+		double dt = dtMs / 1000.0;
+
+		double zx = (loc.getLongitude() - originLgt) * metersPerDegLgt;
+		double zy = (loc.getLatitude() - originLat) * metersPerDegLat;
+
+		// Gate on the jump from our current estimate, giving the benefit of
+		// the doubt for both fixes' accuracy
+		double jump = Math.hypot(zx - x, zy - y)
+				- (loc.getAccuracy() + lastAccuracy);
+		if (jump > MAX_SPEED * dt) {
+			return reject();
+		}
+
+		// Predict
+		x += vx * dt;
+		y += vy * dt;
+		double q = ACCEL_NOISE * ACCEL_NOISE;
+		double dt2 = dt * dt;
+		double n00 = p00 + 2 * dt * p01 + dt2 * p11 + q * dt2 * dt2 / 4;
+		double n01 = p01 + dt * p11 + q * dt2 * dt / 2;
+		double n11 = p11 + q * dt2;
+
+		// Update with the measurement
+		double r = loc.getAccuracy() * loc.getAccuracy();
+		double s = n00 + r;
+		double k0 = n00 / s;
+		double k1 = n01 / s;
+		double ex = zx - x;
+		double ey = zy - y;
+		x += k0 * ex;
+		vx += k1 * ex;
+		y += k0 * ey;
+		vy += k1 * ey;
+		p00 = (1 - k0) * n00;
+		p01 = (1 - k0) * n01;
+		p11 = n11 - k1 * n01;
+
+		lastTime = loc.getTime();
+		lastAccuracy = loc.getAccuracy();
+
+		Location smoothed = new Location(loc);
+		smoothed.setLatitude(originLat + y / metersPerDegLat);
+		smoothed.setLongitude(originLgt + x / metersPerDegLgt);
+		return accept(smoothed);
+	}
+
+	public int getAccepted() {
+		return accepted;
+	}
+
+	public int getRejected() {
+		return rejected;
+	}
+
+	private void start(Location loc) {
+		initialized = true;
+		originLat = loc.getLatitude();
+		originLgt = loc.getLongitude();
+		metersPerDegLat = EARTH_RADIUS * Math.PI / 180.0;
+		metersPerDegLgt = metersPerDegLat
+				* Math.cos(Math.toRadians(originLat));
+
+		x = y = vx = vy = 0;
+		p00 = loc.getAccuracy() * loc.getAccuracy();
+		p01 = 0;
+		p11 = MAX_SPEED * MAX_SPEED;
+
+		lastTime = loc.getTime();
+		lastAccuracy = loc.getAccuracy();
+	}
+
+	private Location accept(Location loc) {
+		accepted++;
+		rejectsInARow = 0;
+		return loc;
+	}
+
+	private Location reject() {
+		rejected++;
+		rejectsInARow++;
+		return null;
+	}
+}
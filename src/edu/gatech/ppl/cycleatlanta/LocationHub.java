@@ -0,0 +1,284 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+
+/**
+ * The one location subscription in the process. The hub registers with its
+ * LocationFeed at the fastest rate any subscriber asked for and fans each
+ * fix out to the subscribers, dropping fixes a subscriber asked not to see.
+ * The recorder takes every fix it asks for; the map takes a throttled
+ * stream. With no subscribers the feed is released.
+ * 
+ * Subscribers that only need to know roughly where the rider is, like the
+ * map, can also take coarse network fixes. Those are registered only while
+ * such a subscriber exists and passed on only while the feed has gone
+ * quiet, e.g. indoors; the recorder never sees them.
+ */
+public class LocationHub implements LocationListener {
+	// How long the feed must be silent before coarse fixes stand in
+	private static final long FEED_QUIET_TIME = 10000;
+	// The fastest coarse rate asked for; each one may cost a Wi-Fi scan
+	private static final long COARSE_MIN_INTERVAL = 10000;
+
+	private static LocationHub sInstance;
+
+	private final HandlerThread hubThread;
+	private LocationFeed feed;
+	private final LocationFeed coarseFeed;
+	private final ArrayList<Subscription> subscribers = new ArrayList<Subscription>();
+	private long feedMinTime = -1;
+	private float feedMinDistance = -1;
+	private long coarseMinTime = -1;
+	// elapsedRealtime of the feed's last fix, -1 before the first
+	private long lastFeedFixAt = -1;
+
+	private static class Subscription {
+		final LocationListener listener;
+		final Handler handler;
+		long minInterval;
+		float minDistance;
+		boolean coarse;
+		Location last;
+		volatile boolean active = true;
+
+		Subscription(LocationListener listener, Handler handler) {
+			this.listener = listener;
+			this.handler = handler;
+		}
+
+		boolean wants(Location loc) {
+			return last == null
+					|| (loc.getTime() - last.getTime() >= minInterval && loc
+							.distanceTo(last) >= minDistance);
+		}
+	}
+
+	public static synchronized LocationHub get(Context ctx) {
+		if (sInstance == null) {
+			sInstance = new LocationHub(ctx.getApplicationContext());
+		}
+		return sInstance;
+	}
+
+	private LocationHub(Context ctx) {
+		hubThread = new HandlerThread("LocationHub",
+				Process.THREAD_PRIORITY_BACKGROUND);
+		hubThread.start();
+		feed = new GpsLocationFeed(ctx);
+		coarseFeed = new NetworkLocationFeed(ctx);
+	}
+
+	/**
+	 * Deliver fixes to listener through handler, no more often than
+	 * minInterval ms and minDistance meters apart. Subscribing again with
+	 * the same listener changes its rate.
+	 */
+	public void subscribe(LocationListener listener, long minInterval,
+			float minDistance, Handler handler) {
+		subscribe(listener, minInterval, minDistance, false, handler);
+	}
+
+	/**
+	 * As above; if coarse, network fixes are also delivered while the feed
+	 * has had nothing for FEED_QUIET_TIME.
+	 */
+	public synchronized void subscribe(LocationListener listener,
+			long minInterval, float minDistance, boolean coarse,
+			Handler handler) {
+		Subscription sub = find(listener);
+		if (sub == null || sub.handler != handler) {
+			unsubscribe(listener);
+			sub = new Subscription(listener, handler);
+			subscribers.add(sub);
+		}
+		sub.minInterval = minInterval;
+		sub.minDistance = minDistance;
+		sub.coarse = coarse;
+		updateFeed();
+	}
+
+	public synchronized void unsubscribe(LocationListener listener) {
+		Subscription sub = find(listener);
+		if (sub != null) {
+			sub.active = false;
+			subscribers.remove(sub);
+			updateFeed();
+		}
+	}
+
+	/**
+	 * Swap the feed, e.g. for a replayed track. Subscribers carry on.
+	 */
+	public synchronized void setFeed(LocationFeed newFeed) {
+		feed.removeUpdates(this);
+		feed = newFeed;
+		feedMinTime = -1;
+		feedMinDistance = -1;
+		updateFeed();
+	}
+
+	public synchronized long currentTimeMillis() {
+		return feed.currentTimeMillis();
+	}
+
+	private Subscription find(LocationListener listener) {
+		for (Subscription sub : subscribers) {
+			if (sub.listener == listener) {
+				return sub;
+			}
+		}
+		return null;
+	}
+
+	// Register with the feed at the fastest rate anyone needs, and only when
+	// that rate actually changes
+	private void updateFeed() {
+		updateCoarseFeed();
+		if (subscribers.isEmpty()) {
+			feed.removeUpdates(this);
+			feedMinTime = -1;
+			feedMinDistance = -1;
+			return;
+		}
+
+		long minTime = Long.MAX_VALUE;
+		float minDistance = Float.MAX_VALUE;
+		for (Subscription sub : subscribers) {
+			minTime = Math.min(minTime, sub.minInterval);
+			minDistance = Math.min(minDistance, sub.minDistance);
+		}
+		if (minTime != feedMinTime || minDistance != feedMinDistance) {
+			feedMinTime = minTime;
+			feedMinDistance = minDistance;
+			feed.requestUpdates(minTime, minDistance, this,
+					hubThread.getLooper());
+		}
+	}
+
+	private void updateCoarseFeed() {
+		long minTime = Long.MAX_VALUE;
+		for (Subscription sub : subscribers) {
+			if (sub.coarse) {
+				minTime = Math.min(minTime, sub.minInterval);
+			}
+		}
+		if (minTime == Long.MAX_VALUE) {
+			if (coarseMinTime >= 0) {
+				coarseFeed.removeUpdates(coarseListener);
+				coarseMinTime = -1;
+			}
+			return;
+		}
+		minTime = Math.max(minTime, COARSE_MIN_INTERVAL);
+		if (minTime != coarseMinTime) {
+			coarseMinTime = minTime;
+			coarseFeed.requestUpdates(minTime, 0, coarseListener,
+					hubThread.getLooper());
+		}
+	}
+
+	// Hand loc to each subscriber that wants it; coarse ones only if
+	// coarseOnly
+	private void deliver(Location loc, boolean coarseOnly) {
+		for (final Subscription sub : subscribers) {
+			if ((coarseOnly && !sub.coarse) || !sub.wants(loc)) {
+				continue;
+			}
+			sub.last = loc;
+			// Each subscriber gets its own copy to keep or modify
+			final Location copy = new Location(loc);
+			sub.handler.post(new Runnable() {
+				public void run() {
+					if (sub.active) {
+						sub.listener.onLocationChanged(copy);
+					}
+				}
+			});
+		}
+	}
+
+	// On the hub thread too
+	private final LocationListener coarseListener = new LocationListener() {
+		public void onLocationChanged(Location loc) {
+			if (loc == null) {
+				return;
+			}
+			synchronized (LocationHub.this) {
+				long quiet = SystemClock.elapsedRealtime() - lastFeedFixAt;
+				if (lastFeedFixAt < 0 || quiet >= FEED_QUIET_TIME) {
+					deliver(loc, true);
+				}
+			}
+		}
+
+		public void onProviderDisabled(String provider) {
+		}
+
+		public void onProviderEnabled(String provider) {
+		}
+
+		public void onStatusChanged(String provider, int status, Bundle extras) {
+		}
+	};
+
+	// ---LocationListener, on the hub thread ---------
+
+	public void onLocationChanged(Location loc) {
+		if (loc == null) {
+			return;
+		}
+		synchronized (this) {
+			lastFeedFixAt = SystemClock.elapsedRealtime();
+			deliver(loc, false);
+		}
+	}
+
+	public void onProviderDisabled(String provider) {
+	}
+
+	public void onProviderEnabled(String provider) {
+	}
+
+	public void onStatusChanged(String provider, int status, Bundle extras) {
+	}
+}
@@ -40,7 +40,8 @@ public class NoteData {
 	Location noteLocation = new Location("");
 	int notetype;
 	String notefancystart, notedetails, noteimageurl;
-	byte[] noteimagedata;
+	// Name of the photo file in NoteImageStore, or null if none
+	String noteimagepath;
 	int notestatus;
 
 	DbAdapter mDb;
@@ -111,8 +112,8 @@ public class NoteData {
 				.getColumnIndex("notestatus"));
 		noteimageurl = noteDetails.getString(noteDetails
 				.getColumnIndex("noteimageurl"));
-		noteimagedata = noteDetails.getBlob(noteDetails
-				.getColumnIndex("noteimagedata"));
+		noteimagepath = noteDetails.getString(noteDetails
+				.getColumnIndex("noteimagepath"));
 
 		noteDetails.close();
 
@@ -174,12 +175,13 @@ public class NoteData {
 	}
 
 	public void updateNote(int notetype, String notefancystart,
-			String notedetails, String noteimgurl, byte[] noteimgdata) {
+			String notedetails, String noteimgurl, String noteimgpath) {
 		// Save the note details to the phone database. W00t!
 		mDb.open();
 		mDb.updateNote(noteid, startTime, notefancystart, notetype,
-				notedetails, noteimgurl, noteimgdata, latitude, longitude,
+				notedetails, noteimgurl, noteimgpath, latitude, longitude,
 				accuracy, altitude, speed);
 		mDb.close();
+		noteimagepath = noteimgpath;
 	}
 }
@@ -1,6 +1,7 @@
 package edu.gatech.ppl.cycleatlanta;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 
 import android.app.Activity;
@@ -96,16 +97,23 @@ public class NoteDetailActivity extends Activity {
 		// Save the note details to the phone database. W00t!
 
 		String deviceId = getDeviceId();
+		String imagePath = null;
 		if (photo != null) {
 			noteImage = getBitmapAsByteArray(photo);
+			try {
+				imagePath = NoteImageStore.put(this, noteImage);
+			} catch (IOException e) {
+				Log.e("NoteDetailActivity", "Could not save note photo", e);
+			}
+		}
+		if (imagePath != null) {
 			imageURL = deviceId + "-" + date + "-type-" + noteType;
 		} else {
-			noteImage = null;
 			imageURL = "";
 		}
 
 		note.updateNote(noteType, fancyStartTime, noteDetailsToUpload,
-				imageURL, noteImage);
+				imageURL, imagePath);
 
 		note.updateNoteStatus(NoteData.STATUS_COMPLETE);
 
@@ -0,0 +1,232 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Note photos live here as files named by the SHA-1 of their bytes; the notes
+ * row only keeps that name. Identical photos share one file, and nothing
+ * reads a photo until a screen or the uploader actually asks for it.
+ */
+public class NoteImageStore {
+
+	private static final String TAG = "NoteImageStore";
+	private static final String DIR = "note_images";
+
+	private NoteImageStore() {
+	}
+
+	static File dir(Context ctx) {
+		File dir = new File(ctx.getFilesDir(), DIR);
+		if (!dir.isDirectory()) {
+			dir.mkdirs();
+		}
+		return dir;
+	}
+
+	/**
+	 * The file behind a stored name, or null for notes without a photo.
+	 */
+	public static File file(Context ctx, String name) {
+		if (name == null || name.length() == 0) {
+			return null;
+		}
+		return new File(dir(ctx), name);
+	}
+
+	/**
+	 * Store the bytes and return the name to keep in the notes row. Writes
+	 * go to a temp file first so a crash never leaves a truncated photo
+	 * under a valid name.
+	 */
+	public static String put(Context ctx, byte[] data) throws IOException {
+		String name = hash(data);
+		File dir = dir(ctx);
+		File target = new File(dir, name);
+		if (target.exists() && target.length() == data.length) {
+			return name;
+		}
+		File tmp = new File(dir, name + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		try {
+			out.write(data);
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!tmp.renameTo(target)) {
+			tmp.delete();
+			throw new IOException("Could not store note image " + name);
+		}
+		return name;
+	}
+
+	public static InputStream open(Context ctx, String name) throws IOException {
+		File f = file(ctx, name);
+		if (f == null) {
+			throw new IOException("Note has no image");
+		}
+		return new FileInputStream(f);
+	}
+
+	/**
+	 * Decode the photo no larger than needed for a reqWidth x reqHeight view.
+	 * Returns null if the note has no photo or it cannot be read.
+	 */
+	public static Bitmap decode(Context ctx, String name, int reqWidth,
+			int reqHeight) {
+		File f = file(ctx, name);
+		if (f == null || !f.exists()) {
+			return null;
+		}
+		BitmapFactory.Options opts = new BitmapFactory.Options();
+		opts.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(f.getPath(), opts);
+
+		int sample = 1;
+		if (reqWidth > 0 && reqHeight > 0) {
+			while (opts.outWidth / (sample * 2) >= reqWidth
+					&& opts.outHeight / (sample * 2) >= reqHeight) {
+				sample *= 2;
+			}
+		}
+		opts.inJustDecodeBounds = false;
+		opts.inSampleSize = sample;
+		return BitmapFactory.decodeFile(f.getPath(), opts);
+	}
+
+	/**
+	 * Delete every stored photo no note refers to any more. Files are listed
+	 * before the notes are read, so a photo stored just now is never seen as
+	 * unreferenced.
+	 * 
+	 * @return the number of files removed
+	 */
+	public static int sweep(Context ctx, DbAdapter db) {
+		File[] files = dir(ctx).listFiles();
+		if (files == null || files.length == 0) {
+			return 0;
+		}
+
+		HashSet<String> referenced = new HashSet<String>();
+		Cursor c = db.fetchNoteImagePaths();
+		try {
+			while (c.moveToNext()) {
+				referenced.add(c.getString(0));
+			}
+		} finally {
+			c.close();
+		}
+
+		int removed = 0;
+		for (File f : files) {
+			if (!referenced.contains(f.getName()) && f.delete()) {
+				removed++;
+			}
+		}
+		if (removed > 0) {
+			Log.i(TAG, "Removed " + removed + " unreferenced note images");
+		}
+		return removed;
+	}
+
+	/**
+	 * Copy every photo still stored as a blob in the notes table, from
+	 * before version 24, out to a file, and clear the blob. Run in the
+	 * background at service start; a photo that cannot be written keeps its
+	 * blob and is tried again next time.
+	 */
+	public static void migrate(Context ctx) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			Cursor notes = db.fetchNotesWithImageData();
+			long[] noteids = new long[notes.getCount()];
+			for (int i = 0; notes.moveToNext(); i++) {
+				noteids[i] = notes.getLong(0);
+			}
+			notes.close();
+
+			int moved = 0;
+			for (long noteid : noteids) {
+				byte[] data = db.fetchNoteImageData(noteid);
+				String name = null;
+				if (data != null && data.length > 0) {
+					try {
+						name = put(ctx, data);
+					} catch (IOException e) {
+						Log.e(TAG, "Could not move image for note " + noteid, e);
+						continue;
+					}
+				}
+				db.moveNoteImageData(noteid, name);
+				moved++;
+			}
+			if (moved > 0) {
+				Log.i(TAG, "Moved " + moved + " note images to files");
+			}
+		} finally {
+			db.close();
+		}
+	}
+
+	static String hash(byte[] data) {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Android runtime ships SHA-1
+			throw new IllegalStateException(e);
+		}
+		byte[] digest = md.digest(data);
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (byte b : digest) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
@@ -3,8 +3,9 @@ package edu.gatech.ppl.cycleatlanta;
 import android.app.Activity;
 import android.content.pm.ActivityInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -30,6 +31,8 @@ public class NoteMapActivity extends Activity {
 	ImageView imageView;
 
 	Bitmap photo;
+	NoteData note;
+	private PhotoLoader photoLoader;
 
 	private Menu menu;
 
@@ -52,7 +55,7 @@ public class NoteMapActivity extends Activity {
 			Bundle cmds = getIntent().getExtras();
 			long noteid = cmds.getLong("shownote");
 
-			NoteData note = NoteData.fetchNote(this, noteid);
+			note = NoteData.fetchNote(this, noteid);
 
 			// Show note details
 			TextView t1 = (TextView) findViewById(R.id.TextViewMapNoteType);
@@ -97,22 +100,10 @@ public class NoteMapActivity extends Activity {
 				}
 			}
 
-			Log.v("Jason", "Image Photo: " + note.noteimagedata);
+			Log.v("Jason", "Image Photo: " + note.noteimagepath);
 			Log.v("Jason", "Image Photo: " + note.noteimageurl);
 
-			if (note.noteimageurl.equals("")) {
-			} else {
-				// Store photo error, retrieve error
-				photo = BitmapFactory.decodeByteArray(note.noteimagedata, 0,
-						note.noteimagedata.length);
-				if (photo.getHeight() > photo.getWidth()) {
-					imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
-				} else {
-					imageView.setScaleType(ImageView.ScaleType.FIT_START);
-				}
-				imageView.setImageBitmap(photo);
-				Log.v("Jason", "Image Photo: " + photo);
-			}
+			// The photo itself is read when the image view is first shown
 
 		} catch (Exception e) {
 			Log.e("GOT!", e.toString());
@@ -130,10 +121,7 @@ public class NoteMapActivity extends Activity {
 		// Inflate the menu; this adds items to the action bar if it is present.
 		getMenuInflater().inflate(R.menu.note_map, menu);
 		saveMenuItem = menu.getItem(0);
-		Bundle cmds = getIntent().getExtras();
-		long noteid = cmds.getLong("shownote");
-		NoteData note = NoteData.fetchNote(this, noteid);
-		if (note.noteimageurl.equals("")) {
+		if (note == null || note.noteimageurl.equals("")) {
 			saveMenuItem.setVisible(false);
 		} else {
 			saveMenuItem.setVisible(true);
@@ -157,6 +145,7 @@ public class NoteMapActivity extends Activity {
 						getApplicationContext(), android.R.anim.fade_in);
 				imageView.setAnimation(animFadeIn);
 				imageView.setVisibility(View.VISIBLE);
+				loadPhoto();
 			} else if (saveMenuItem.getTitle().equals("map")) {
 				saveMenuItem.setTitle("image");
 				Animation animFadeOut = AnimationUtils.loadAnimation(
@@ -170,4 +159,56 @@ public class NoteMapActivity extends Activity {
 		}
 	}
 
+	@Override
+	protected void onDestroy() {
+		if (photoLoader != null) {
+			photoLoader.cancel(true);
+		}
+		super.onDestroy();
+	}
+
+	private void loadPhoto() {
+		if (photo != null || photoLoader != null || note == null
+				|| note.noteimagepath == null) {
+			return;
+		}
+		DisplayMetrics dm = getResources().getDisplayMetrics();
+		photoLoader = new PhotoLoader(dm.widthPixels, dm.heightPixels);
+		photoLoader.execute(note.noteimagepath);
+	}
+
+	// Decodes the note photo off the UI thread, sampled down to the screen
+	private class PhotoLoader extends AsyncTask<String, Void, Bitmap> {
+		private final int width, height;
+
+		PhotoLoader(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		protected Bitmap doInBackground(String... names) {
+			return NoteImageStore.decode(NoteMapActivity.this, names[0],
+					width, height);
+		}
+
+		@Override
+		protected void onPostExecute(Bitmap result) {
+			if (result == null) {
+				// Store photo error, retrieve error
+				Log.e("NoteMapActivity", "Could not load note photo");
+				photoLoader = null;
+				return;
+			}
+			photo = result;
+			if (photo.getHeight() > photo.getWidth()) {
+				imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+			} else {
+				imageView.setScaleType(ImageView.ScaleType.FIT_START);
+			}
+			imageView.setImageBitmap(photo);
+			Log.v("Jason", "Image Photo: " + photo);
+		}
+	}
+
 }
@@ -32,6 +32,7 @@ package edu.gatech.ppl.cycleatlanta;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -47,13 +48,13 @@ import android.database.Cursor;
 import android.os.AsyncTask;
 import android.provider.Settings.System;
 import android.util.Log;
-import android.widget.ListView;
 import android.widget.Toast;
 
 public class NoteUploader extends AsyncTask<Long, Integer, Boolean> {
 	Context mCtx;
 	DbAdapter mDb;
-	byte[] imageData;
+	// Photo name in NoteImageStore; streamed into the request, never held
+	String imagePath;
 	Boolean imageDataNull;
 
 	public static final int kSaveNoteProtocolVersion = 4;
@@ -116,13 +117,10 @@ public class NoteUploader extends AsyncTask<Long, Integer, Boolean> {
 		note.put(NOTE_DETAILS, noteCursor.getString(fieldMap.get(NOTE_DETAILS)));
 		note.put(NOTE_IMGURL, noteCursor.getString(fieldMap.get(NOTE_IMGURL)));
 
-		if (noteCursor.getString(fieldMap.get(NOTE_IMGURL)).equals("")) {
-			imageDataNull = true;
-		} else {
-			imageDataNull = false;
-			imageData = noteCursor.getBlob(noteCursor
-					.getColumnIndex(DbAdapter.K_NOTE_IMGDATA));
-		}
+		imagePath = noteCursor.getString(noteCursor
+				.getColumnIndex(DbAdapter.K_NOTE_IMGPATH));
+		imageDataNull = noteCursor.getString(fieldMap.get(NOTE_IMGURL))
+				.equals("") || imagePath == null;
 
 		noteCursor.close();
 		mDb.close();
@@ -288,7 +286,16 @@ public class NoteUploader extends AsyncTask<Long, Integer, Boolean> {
 						+ "Content-Disposition: form-data; name=\"file\"; filename=\""
 						+ deviceId + ".jpg\"\r\n"
 						+ "Content-Type: image/jpeg\r\n\r\n");
-				dos.write(imageData);
+				InputStream in = NoteImageStore.open(mCtx, imagePath);
+				try {
+					byte[] buf = new byte[8192];
+					int n;
+					while ((n = in.read(buf)) > 0) {
+						dos.write(buf, 0, n);
+					}
+				} finally {
+					in.close();
+				}
 				dos.writeBytes("\r\n");
 			}
 
@@ -366,21 +373,6 @@ public class NoteUploader extends AsyncTask<Long, Integer, Boolean> {
 		return mSavedNotesAdapter;
 	}
 
-	private FragmentSavedNotesSection fragmentSavedNotesSection;
-
-	public FragmentSavedNotesSection setFragmentSavedNotesSection(
-			FragmentSavedNotesSection fragmentSavedNotesSection) {
-		this.fragmentSavedNotesSection = fragmentSavedNotesSection;
-		return fragmentSavedNotesSection;
-	}
-
-	private ListView listSavedNotes;
-
-	public ListView setListView(ListView listSavedNotes) {
-		this.listSavedNotes = listSavedNotes;
-		return listSavedNotes;
-	}
-
 	@Override
 	protected void onPostExecute(Boolean result) {
 		try {
@@ -388,10 +380,8 @@ public class NoteUploader extends AsyncTask<Long, Integer, Boolean> {
 				mSavedNotesAdapter.notifyDataSetChanged();
 			}
 
-			if (fragmentSavedNotesSection != null) {
-				listSavedNotes.invalidate();
-				fragmentSavedNotesSection.populateNoteList(listSavedNotes);
-			}
+			// No list refresh needed: marking the note sent notified the
+			// saved notes loader
 
 			if (result) {
 				Toast.makeText(mCtx.getApplicationContext(),
@@ -0,0 +1,111 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write-behind queue for recorded points. Points are held in memory and
+ * handed to the database in one transaction once the flush policy says so,
+ * instead of opening the database for every GPS fix.
+ */
+class PointWriteBuffer {
+
+	/**
+	 * When to flush: after maxPoints queued points, or once the oldest queued
+	 * point has waited maxDelayMs, whichever comes first.
+	 */
+	public static class FlushPolicy {
+		final int maxPoints;
+		final long maxDelayMs;
+
+		public FlushPolicy(int maxPoints, long maxDelayMs) {
+			this.maxPoints = Math.max(1, maxPoints);
+			this.maxDelayMs = Math.max(0, maxDelayMs);
+		}
+	}
+
+	// At one fix per second: at most ~15 seconds of points at risk
+	public static final FlushPolicy DEFAULT_POLICY = new FlushPolicy(15, 15000);
+
+	private final ArrayList<CyclePoint> pending = new ArrayList<CyclePoint>();
+	private FlushPolicy policy;
+	private double oldestQueuedAt = 0;
+
+	public PointWriteBuffer(FlushPolicy policy) {
+		setPolicy(policy);
+	}
+
+	public void setPolicy(FlushPolicy policy) {
+		this.policy = (policy != null) ? policy : DEFAULT_POLICY;
+	}
+
+	public FlushPolicy getPolicy() {
+		return policy;
+	}
+
+	public void add(CyclePoint pt, double now) {
+		if (pending.isEmpty()) {
+			oldestQueuedAt = now;
+		}
+		pending.add(pt);
+	}
+
+	public boolean shouldFlush(double now) {
+		if (pending.isEmpty()) {
+			return false;
+		}
+		return pending.size() >= policy.maxPoints
+				|| now - oldestQueuedAt >= policy.maxDelayMs;
+	}
+
+	public boolean isEmpty() {
+		return pending.isEmpty();
+	}
+
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * The queued points, oldest first. Call clear() once they are safely
+	 * committed; on failure leave them queued so the next flush retries.
+	 */
+	public List<CyclePoint> getPending() {
+		return pending;
+	}
+
+	public void clear() {
+		pending.clear();
+		oldestQueuedAt = 0;
+	}
+}
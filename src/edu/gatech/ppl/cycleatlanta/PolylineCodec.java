@@ -0,0 +1,117 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+/**
+ * The encoded polyline format used by the Google Maps APIs: each latitude
+ * and longitude, rounded to 1E-5 degrees, is written as the difference
+ * from the previous vertex, zigzag-signed, in 5-bit groups offset into
+ * printable ASCII. Close vertices cost two to four characters each.
+ *
+ * Input and output are the micro-degree ints used everywhere else, so a
+ * round trip loses the last digit (about a meter) and nothing more.
+ */
+final class PolylineCodec {
+
+	private PolylineCodec() {
+	}
+
+	/**
+	 * Encode the first n vertices of lat/lgt.
+	 */
+	public static String encode(int[] lat, int[] lgt, int n) {
+		StringBuilder sb = new StringBuilder(n * 6);
+		int prevLat = 0, prevLgt = 0;
+		for (int i = 0; i < n; i++) {
+			int qLat = round(lat[i]);
+			int qLgt = round(lgt[i]);
+			writeValue(sb, qLat - prevLat);
+			writeValue(sb, qLgt - prevLgt);
+			prevLat = qLat;
+			prevLgt = qLgt;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Decode into interleaved micro-degrees: lat0, lgt0, lat1, lgt1, ...
+	 */
+	public static int[] decode(String encoded) {
+		int[] out = new int[16];
+		int n = 0;
+		int[] pos = { 0 };
+		int lat = 0, lgt = 0;
+		int len = encoded.length();
+		while (pos[0] < len) {
+			lat += readValue(encoded, pos);
+			lgt += readValue(encoded, pos);
+			if (n + 2 > out.length) {
+				int[] grown = new int[out.length * 2];
+				System.arraycopy(out, 0, grown, 0, n);
+				out = grown;
+			}
+			out[n++] = lat * 10;
+			out[n++] = lgt * 10;
+		}
+		int[] result = new int[n];
+		System.arraycopy(out, 0, result, 0, n);
+		return result;
+	}
+
+	// Micro-degrees to the format's 1E-5 degrees, half away from zero
+	private static int round(int microdegrees) {
+		return (microdegrees >= 0) ? (microdegrees + 5) / 10
+				: -((-microdegrees + 5) / 10);
+	}
+
+	private static void writeValue(StringBuilder sb, int value) {
+		int v = (value < 0) ? ~(value << 1) : (value << 1);
+		while (v >= 0x20) {
+			sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+			v >>>= 5;
+		}
+		sb.append((char) (v + 63));
+	}
+
+	private static int readValue(String s, int[] pos) {
+		int result = 0, shift = 0, b;
+		do {
+			if (pos[0] >= s.length()) {
+				throw new IllegalArgumentException("Truncated polyline");
+			}
+			b = s.charAt(pos[0]++) - 63;
+			result |= (b & 0x1f) << shift;
+			shift += 5;
+		} while (b >= 0x20);
+		return ((result & 1) != 0) ? ~(result >> 1) : (result >> 1);
+	}
+}
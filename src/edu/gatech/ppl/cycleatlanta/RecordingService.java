@@ -30,6 +30,8 @@
 
 package edu.gatech.ppl.cycleatlanta;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -41,18 +43,20 @@ import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
 import android.location.LocationListener;
-import android.location.LocationManager;
 import android.media.AudioManager;
 import android.media.SoundPool;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 import android.util.Log;
 
 public class RecordingService extends Service implements LocationListener {
-	FragmentMainInput recordActivity;
-	LocationManager lm = null;
+	private static final String TAG = "RecordingService";
+
+	LocationHub hub;
 	DbAdapter mDb;
 
 	// Bike bell variables
@@ -62,27 +66,97 @@ public class RecordingService extends Service implements LocationListener {
 	SoundPool soundpool;
 	int bikebell;
 	final Handler mHandler = new Handler();
+
+	// Stats go out to the UI through here, coalesced and only while someone
+	// is looking. The heartbeat keeps the duration ticking between fixes.
+	final StatusPublisher statusPublisher = new StatusPublisher();
+	static final long HEARTBEAT_INTERVAL = 1000;
+	final Runnable mHeartbeat = new Runnable() {
+		public void run() {
+			if (statusPublisher.hasVisibleListener()) {
+				notifyListeners();
+			}
+			mHandler.postDelayed(this, HEARTBEAT_INTERVAL);
+		}
+	};
+
+	// Location delivery, stats and persistence run on their own looper so
+	// GPS fixes never touch disk on the UI thread.
+	HandlerThread recordThread;
+	Handler mRecordHandler;
+
 	final Runnable mRemindUser = new Runnable() {
 		public void run() {
 			remindUser();
 		}
 	};
 
-	// Aspects of the currently recording trip
+	// Write-behind flush: makes sure queued points land even when fixes
+	// stop arriving (tunnel, stopped at a light)
+	final Runnable mFlushPoints = new Runnable() {
+		public void run() {
+			if (trip != null) {
+				trip.flushPointsIfDue(System.currentTimeMillis());
+			}
+			scheduleFlush();
+		}
+	};
+
+	// Save the running trip summary to the trips row every so often,
+	// rather than with every point
+	static final long CHECKPOINT_INTERVAL = 60000;
+	final Runnable mCheckpoint = new Runnable() {
+		public void run() {
+			if (trip != null) {
+				trip.checkpoint();
+			}
+			mRecordHandler.postDelayed(this, CHECKPOINT_INTERVAL);
+		}
+	};
+
+	// Aspects of the currently recording trip. Written on the recording
+	// thread; the UI only ever sees posted copies.
 	double latestUpdate;
 	Location lastLocation;
 	float distanceTraveled;
 	float curSpeed, maxSpeed;
 	TripData trip;
+	SamplingPolicy samplingPolicy = new SpeedAdaptiveSamplingPolicy();
+	TrackSimplifier simplifier = new TrackSimplifier();
+	LocationFilter locationFilter = new LocationFilter();
+	int fixesReceived, fixesSaved, rateChanges;
+	PointWriteBuffer.FlushPolicy flushPolicy = PointWriteBuffer.DEFAULT_POLICY;
+
+	// Auto-pause: stop recording points while the rider is standing still,
+	// checking for movement every AUTO_PAUSE_MIN_TIME
+	static final long AUTO_PAUSE_MIN_TIME = 5000;
+	// Slack past the sampling interval before a missing fix, with the
+	// distance filter on, is taken as a possible stop
+	static final long STILL_CHECK_DELAY = 5000;
+	StationaryDetector stationaryDetector = new StationaryDetector();
+	boolean autoPauseEnabled = true;
+	volatile boolean autoPaused = false;
+	// The distance filter is off while we find out whether the rider has
+	// stopped; probeFrom is where the fixes dried up
+	volatile boolean probingForStop = false;
+	Location probeFrom;
+	int autoPauses;
 
 	public final static int STATE_IDLE = 0;
 	public final static int STATE_RECORDING = 1;
 	public final static int STATE_PAUSED = 2;
 	public final static int STATE_FULL = 3;
 
-	int state = STATE_IDLE;
+	volatile int state = STATE_IDLE;
 	private final MyServiceBinder myServiceBinder = new MyServiceBinder();
 
+	// Replay a recorded track instead of using the GPS, for load testing:
+	// adb shell am startservice -n edu.gatech.ppl.cycleatlanta/.RecordingService
+	// --es replay_path /sdcard/ride.gpx --ef replay_speed 10
+	// A replay_speed of 0 plays the track as fast as it can be recorded.
+	public static final String EXTRA_REPLAY_PATH = "replay_path";
+	public static final String EXTRA_REPLAY_SPEED = "replay_speed";
+
 	// ---SERVICE methods - required! -----------------
 	@Override
 	public IBinder onBind(Intent arg0) {
@@ -94,15 +168,51 @@ public class RecordingService extends Service implements LocationListener {
 		super.onCreate();
 		soundpool = new SoundPool(1, AudioManager.STREAM_NOTIFICATION, 0);
 		bikebell = soundpool.load(this.getBaseContext(), R.raw.bikebell, 1);
+
+		recordThread = new HandlerThread("RecordingThread",
+				Process.THREAD_PRIORITY_BACKGROUND);
+		recordThread.start();
+		mRecordHandler = new Handler(recordThread.getLooper());
+		hub = LocationHub.get(this);
+
+		Housekeeping.start(this);
+	}
+
+	@Override
+	public int onStartCommand(Intent intent, int flags, int startId) {
+		if (intent != null && intent.hasExtra(EXTRA_REPLAY_PATH)) {
+			File track = new File(intent.getStringExtra(EXTRA_REPLAY_PATH));
+			float speed = intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1.0f);
+			try {
+				setLocationFeed(new ReplayLocationFeed(ReplayTrack.load(track),
+						speed));
+				Log.i(TAG, "Replaying " + track + " at "
+						+ (speed > 0 ? speed + "x" : "max speed"));
+			} catch (IOException e) {
+				Log.e(TAG, "Couldn't load replay track " + track, e);
+			}
+		}
+		return START_NOT_STICKY;
 	}
 
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
+		hub.unsubscribe(this);
+		// Re-posts itself every second while recording; left alone it
+		// would keep the destroyed service alive
+		mHandler.removeCallbacks(mHeartbeat);
+		stopFlushing(false);
 		if (timer != null) {
 			timer.cancel();
 			timer.purge();
 		}
+		// Behind anything still queued, such as a finished trip's packing
+		mRecordHandler.post(new Runnable() {
+			public void run() {
+				recordThread.quit();
+			}
+		});
 	}
 
 	public class MyServiceBinder extends Binder implements IRecordService {
@@ -130,6 +240,10 @@ public class RecordingService extends Service implements LocationListener {
 			return RecordingService.this.finishRecording();
 		}
 
+		public void runWhenSaved(Runnable r) {
+			RecordingService.this.runWhenSaved(r);
+		}
+
 		public long getCurrentTrip() {
 			if (RecordingService.this.trip != null) {
 				return RecordingService.this.trip.tripid;
@@ -141,10 +255,38 @@ public class RecordingService extends Service implements LocationListener {
 			RecordingService.this.state = STATE_IDLE;
 		}
 
-		public void setListener(FragmentMainInput mia) {
-			RecordingService.this.recordActivity = mia;
+		public void setFlushPolicy(PointWriteBuffer.FlushPolicy policy) {
+			RecordingService.this.setFlushPolicy(policy);
+		}
+
+		public void setSamplingPolicy(SamplingPolicy policy) {
+			RecordingService.this.setSamplingPolicy(policy);
+		}
+
+		public void setLocationFeed(LocationFeed feed) {
+			RecordingService.this.setLocationFeed(feed);
+		}
+
+		public void setAutoPause(boolean enabled) {
+			RecordingService.this.setAutoPause(enabled);
+		}
+
+		public boolean isAutoPaused() {
+			return RecordingService.this.autoPaused;
+		}
+
+		public void addStatusListener(RecordingStatusListener listener) {
+			statusPublisher.addListener(listener);
 			notifyListeners();
 		}
+
+		public void removeStatusListener(RecordingStatusListener listener) {
+			statusPublisher.removeListener(listener);
+		}
+
+		public void setStatusRate(float perSecond) {
+			statusPublisher.setMaxRate(perSecond);
+		}
 	}
 
 	// ---end SERVICE methods -------------------------
@@ -152,16 +294,34 @@ public class RecordingService extends Service implements LocationListener {
 	public void startRecording(TripData trip) {
 		this.state = STATE_RECORDING;
 		this.trip = trip;
+		trip.setFlushPolicy(flushPolicy);
+
+		TripJournal journal = new TripJournal(this);
+		try {
+			journal.start(trip.tripid, trip.startTime);
+			trip.setJournal(journal);
+		} catch (IOException e) {
+			Log.e(TAG, "Couldn't start trip journal", e);
+		}
 
 		curSpeed = maxSpeed = distanceTraveled = 0.0f;
 		lastLocation = null;
+		fixesReceived = fixesSaved = rateChanges = autoPauses = 0;
+		autoPaused = false;
+		probingForStop = false;
+		stationaryDetector.reset();
+		samplingPolicy.reset();
+		simplifier.reset();
+		locationFilter.reset();
 
 		// Add the notify bar and blinking light
 		setNotification();
 
 		// Start listening for GPS updates!
-		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		lm.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+		requestLocationUpdates();
+		scheduleFlush();
+		mHandler.removeCallbacks(mHeartbeat);
+		mHandler.post(mHeartbeat);
 
 		// Set up timer for bike bell
 		if (timer != null) {
@@ -179,20 +339,47 @@ public class RecordingService extends Service implements LocationListener {
 
 	public void pauseRecording() {
 		this.state = STATE_PAUSED;
-		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		lm.removeUpdates(this);
+		autoPaused = false;
+		hub.unsubscribe(this);
+		stopFlushing(true);
 	}
 
 	public void resumeRecording() {
+		if (trip != null) {
+			trip.endPause(System.currentTimeMillis());
+		}
+		stationaryDetector.reset();
+		probingForStop = false;
 		this.state = STATE_RECORDING;
-		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		lm.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+		requestLocationUpdates();
+		scheduleFlush();
 	}
 
 	public long finishRecording() {
 		this.state = STATE_FULL;
-		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		lm.removeUpdates(this);
+		hub.unsubscribe(this);
+		if (autoPaused) {
+			trip.endPause(hub.currentTimeMillis());
+			autoPaused = false;
+		}
+		stopFlushing(true);
+		logFixRate();
+		mHandler.removeCallbacks(mHeartbeat);
+
+		// Recording is over: once the last points are in, drop the journal,
+		// pack the points into chunks, write the trip's summary and draw its
+		// thumbnail, off the UI thread. runWhenSaved() tells the next screen
+		// when this is done.
+		final TripData t = trip;
+		final long tripid = t.tripid;
+		mRecordHandler.post(new Runnable() {
+			public void run() {
+				closeJournal(t);
+				TrackStore.packTrip(RecordingService.this, tripid);
+				TripStats.updateTrip(RecordingService.this, tripid);
+				TripThumbnails.renderTrip(RecordingService.this, tripid);
+			}
+		});
 
 		clearNotifications();
 
@@ -200,19 +387,227 @@ public class RecordingService extends Service implements LocationListener {
 	}
 
 	public void cancelRecording() {
-		if (trip != null) {
-			trip.dropTrip();
+		hub.unsubscribe(this);
+		autoPaused = false;
+		mHandler.removeCallbacks(mHeartbeat);
+		stopTimers();
+
+		// Behind any fix or flush still queued for the trip
+		final TripData t = trip;
+		if (t != null) {
+			mRecordHandler.post(new Runnable() {
+				public void run() {
+					t.dropTrip();
+				}
+			});
 		}
 
-		lm = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
-		lm.removeUpdates(this);
-
 		clearNotifications();
 		this.state = STATE_IDLE;
 	}
 
-	public void registerUpdates(FragmentMainInput r) {
-		this.recordActivity = r;
+	// (Re-)subscribe to the hub at the rate the sampling policy asks for.
+	// Fixes arrive on the recording thread. Noticing a stop takes fixes
+	// while standing still, so the distance filter is dropped while
+	// probing for one; see mStillCheck.
+	private void requestLocationUpdates() {
+		hub.subscribe(this, samplingPolicy.getMinTime(),
+				probingForStop ? 0 : samplingPolicy.getMinDistance(),
+				mRecordHandler);
+	}
+
+	// The distance filter has held fixes back for longer than the sampling
+	// interval: the rider may have stopped. Take every fix until the
+	// stationary detector decides, or they turn out to be moving.
+	private final Runnable mStillCheck = new Runnable() {
+		public void run() {
+			if (state == STATE_RECORDING && autoPauseEnabled
+					&& !probingForStop) {
+				probingForStop = true;
+				probeFrom = lastLocation;
+				requestLocationUpdates();
+			}
+		}
+	};
+
+	// Called for each fix kept while recording
+	private void scheduleStillCheck() {
+		mRecordHandler.removeCallbacks(mStillCheck);
+		if (autoPauseEnabled && !probingForStop
+				&& samplingPolicy.getMinDistance() > 0) {
+			mRecordHandler.postDelayed(mStillCheck,
+					samplingPolicy.getMinTime() + STILL_CHECK_DELAY);
+		}
+	}
+
+	// Probing and moving as the detector would count it: put the distance
+	// filter back
+	private void checkProbe(Location loc) {
+		if (!probingForStop) {
+			return;
+		}
+		if (probeFrom == null) {
+			probeFrom = loc;
+		} else if (loc.getSpeed() > StationaryDetector.MOVE_SPEED
+				|| loc.distanceTo(probeFrom) > StationaryDetector.MOVE_DISTANCE) {
+			probingForStop = false;
+			probeFrom = null;
+			requestLocationUpdates();
+		}
+	}
+
+	public void setAutoPause(boolean enabled) {
+		autoPauseEnabled = enabled;
+		stationaryDetector.reset();
+		if (!enabled) {
+			mRecordHandler.removeCallbacks(mStillCheck);
+			probingForStop = false;
+		}
+		if (!enabled && autoPaused) {
+			autoResume(hub.currentTimeMillis());
+		} else if (state == STATE_RECORDING) {
+			requestLocationUpdates();
+		}
+	}
+
+	// The rider stopped at pausedSince: close off the track, write it out,
+	// and only listen for them setting off again
+	private void autoPause(double pausedSince) {
+		state = STATE_PAUSED;
+		autoPaused = true;
+		probingForStop = false;
+		autoPauses++;
+		stopFlushing(true);
+		trip.startPause(pausedSince);
+		curSpeed = 0.0f;
+		hub.subscribe(this, AUTO_PAUSE_MIN_TIME, 0, mRecordHandler);
+		Log.i(TAG, "Auto-paused trip " + trip.tripid);
+		notifyListeners();
+	}
+
+	private void autoResume(double now) {
+		trip.endPause(now);
+		autoPaused = false;
+		state = STATE_RECORDING;
+		samplingPolicy.reset();
+		requestLocationUpdates();
+		scheduleFlush();
+		Log.i(TAG, "Auto-resumed trip " + trip.tripid);
+	}
+
+	// Feeds the whole process, so the map follows a replay too
+	public void setLocationFeed(LocationFeed feed) {
+		hub.setFeed(feed);
+	}
+
+	public void setSamplingPolicy(SamplingPolicy policy) {
+		samplingPolicy = policy;
+		samplingPolicy.reset();
+		if (state == STATE_RECORDING) {
+			requestLocationUpdates();
+		}
+	}
+
+	// The simplifier holds back the newest point; write it out when the
+	// rider stops so the track ends where they did.
+	private void finishSimplifiedRun(TripData t) {
+		synchronized (simplifier) {
+			CyclePoint last = simplifier.finish();
+			if (last != null && t != null) {
+				t.addPoint(last, distanceTraveled);
+				fixesSaved++;
+			}
+		}
+	}
+
+	// So we can see what adaptive sampling saves in fixes and writes
+	private void logFixRate() {
+		if (trip == null) {
+			return;
+		}
+		double seconds = (System.currentTimeMillis() - trip.startTime) / 1000.0;
+		if (seconds <= 0) {
+			return;
+		}
+		Log.i(TAG, String.format(
+				"Trip %d: %d fixes received, %d saved in %.0f s "
+						+ "(%.2f fixes/s received, %.2f saved), %d rate changes",
+				trip.tripid, fixesReceived, fixesSaved, seconds, fixesReceived
+						/ seconds, fixesSaved / seconds, rateChanges));
+		Log.i(TAG, String.format("Trip %d: filter rejected %d of %d fixes",
+				trip.tripid, locationFilter.getRejected(),
+				locationFilter.getRejected() + locationFilter.getAccepted()));
+		Log.i(TAG, String.format(
+				"Trip %d: simplifier kept %d of %d points (%.0f%% reduction)",
+				trip.tripid, simplifier.getKept(), simplifier.getSeen(),
+				100.0f * simplifier.getReductionRatio()));
+		Log.i(TAG, String.format("Trip %d: auto-paused %d times, %.0f s",
+				trip.tripid, autoPauses, trip.getPausedTime(hub
+						.currentTimeMillis()) / 1000.0));
+	}
+
+	public void setFlushPolicy(PointWriteBuffer.FlushPolicy policy) {
+		flushPolicy = policy;
+		if (trip != null) {
+			trip.setFlushPolicy(policy);
+		}
+	}
+
+	private void scheduleFlush() {
+		mRecordHandler.removeCallbacks(mFlushPoints);
+		mRecordHandler.postDelayed(mFlushPoints, flushPolicy.maxDelayMs);
+		mRecordHandler.removeCallbacks(mCheckpoint);
+		mRecordHandler.postDelayed(mCheckpoint, CHECKPOINT_INTERVAL);
+	}
+
+	private void stopTimers() {
+		mRecordHandler.removeCallbacks(mFlushPoints);
+		mRecordHandler.removeCallbacks(mCheckpoint);
+		mRecordHandler.removeCallbacks(mStillCheck);
+	}
+
+	// Stop the flush and checkpoint timers, then write out anything still
+	// queued along with the trip summary, first ending the simplified run
+	// if endRun. The write is posted to the recording thread, after any fix
+	// already queued there; nothing waits for it, and runWhenSaved() says
+	// when it is done.
+	private void stopFlushing(final boolean endRun) {
+		stopTimers();
+		final TripData t = trip;
+		mRecordHandler.post(new Runnable() {
+			public void run() {
+				if (endRun) {
+					finishSimplifiedRun(t);
+				}
+				if (t != null) {
+					t.checkpoint();
+				}
+			}
+		});
+	}
+
+	// Hand r to the UI thread once the recording thread gets through what
+	// is queued ahead of it. If the thread has quit, that work is done.
+	public void runWhenSaved(final Runnable r) {
+		boolean posted = mRecordHandler.post(new Runnable() {
+			public void run() {
+				mHandler.post(r);
+			}
+		});
+		if (!posted) {
+			mHandler.post(r);
+		}
+	}
+
+	// Every point is in the database now; the journal has nothing to add
+	private void closeJournal(TripData t) {
+		if (t.checkpoint()) {
+			TripJournal journal = t.getJournal();
+			t.setJournal(null);
+			if (journal != null) {
+				journal.delete();
+			}
+		}
 	}
 
 	public TripData getCurrentTrip() {
@@ -221,19 +616,58 @@ public class RecordingService extends Service implements LocationListener {
 
 	// LocationListener implementation:
 	@Override
-	public void onLocationChanged(Location loc) {
-		if (loc != null) {
-			// Only save one beep per second.
-			double currentTime = System.currentTimeMillis();
-			if (currentTime - latestUpdate > 999) {
+	public void onLocationChanged(Location raw) {
+		// A fix may already be queued on our looper when recording stops
+		if (raw != null && (state == STATE_RECORDING || autoPaused)) {
+			fixesReceived++;
+
+			// Outliers never reach the stats or the database
+			Location loc = locationFilter.filter(raw);
+			if (loc == null) {
+				return;
+			}
+
+			if (autoPauseEnabled && stationaryDetector.update(loc)) {
+				double now = hub.currentTimeMillis();
+				if (stationaryDetector.isStationary()) {
+					autoPause(now
+							- (loc.getTime() - stationaryDetector
+									.getStoppedSince()));
+				} else {
+					autoResume(now);
+				}
+			}
+			if (autoPaused) {
+				return;
+			}
+
+			checkProbe(loc);
+			if (samplingPolicy.update(loc)) {
+				rateChanges++;
+				requestLocationUpdates();
+			}
+			scheduleStillCheck();
+
+			// Only save one beep per second. Leave some slack so fixes
+			// requested at exactly 1 Hz aren't dropped for arriving early.
+			// Go by the fix's own time, not the clock: a replay feed runs
+			// ahead of the fixes still queued for this thread.
+			double currentTime = loc.getTime();
+			if (currentTime - latestUpdate > 900) {
 
 				latestUpdate = currentTime;
 				updateTripStats(loc);
-				boolean rtn = trip.addPointNow(loc, currentTime,
-						distanceTraveled);
-				Log.v("Jason", "Distance Traveled: " + distanceTraveled);
-				if (!rtn) {
-					// Log.e("FAIL", "Couldn't write to DB");
+				trip.addFix(currentTime, loc.getSpeed());
+				synchronized (simplifier) {
+					CyclePoint keep = simplifier.offer(TripData
+							.pointFromLocation(loc, currentTime));
+					if (keep != null) {
+						boolean rtn = trip.addPoint(keep, distanceTraveled);
+						fixesSaved++;
+						if (!rtn) {
+							// Log.e("FAIL", "Couldn't write to DB");
+						}
+					}
 				}
 
 				// Update the status page every time, if we can.
@@ -327,27 +761,33 @@ public class RecordingService extends Service implements LocationListener {
 	private void updateTripStats(Location newLocation) {
 		final float spdConvert = 2.2369f;
 
-		// Stats should only be updated if accuracy is decent
+		// Speed should only be updated if accuracy is decent
 		if (newLocation.getAccuracy() < 20) {
 			// Speed data is sometimes awful, too:
 			curSpeed = newLocation.getSpeed() * spdConvert;
 			if (curSpeed < 60.0f) {
 				maxSpeed = Math.max(maxSpeed, curSpeed);
 			}
-			if (lastLocation != null) {
-				float segmentDistance = lastLocation.distanceTo(newLocation);
-				distanceTraveled = distanceTraveled + segmentDistance;
-			}
+		}
 
-			lastLocation = newLocation;
+		// Positions come smoothed from the filter, so every segment counts
+		if (lastLocation != null) {
+			float segmentDistance = lastLocation.distanceTo(newLocation);
+			distanceTraveled = distanceTraveled + segmentDistance;
 		}
+		lastLocation = newLocation;
 	}
 
+	// Publish a snapshot of the stats; the publisher decides whether and
+	// when the UI sees it. Never blocks on the UI.
 	void notifyListeners() {
-		if (recordActivity != null) {
-			Log.v("Jason", "Distance Traveled: hahaha");
-			recordActivity.updateStatus(trip.numpoints, distanceTraveled,
-					curSpeed, maxSpeed);
+		TripData t = trip;
+		if (t == null) {
+			return;
 		}
+		long now = hub.currentTimeMillis();
+		statusPublisher.publish(new RecordingStats(t.tripid, state,
+				autoPaused, t.numpoints, distanceTraveled, curSpeed, maxSpeed,
+				now - t.startTime - t.getPausedTime(now), now));
 	}
 }
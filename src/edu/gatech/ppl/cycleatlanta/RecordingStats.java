@@ -0,0 +1,62 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+/**
+ * What the recorder has to say about the trip at one moment. Immutable, so
+ * it can be handed from the recording thread to the UI as is.
+ */
+public final class RecordingStats {
+	public final long tripid;
+	public final int state; // RecordingService.STATE_*
+	public final boolean autoPaused;
+	public final int numpoints;
+	public final float distance; // meters
+	public final float curSpeed; // mph
+	public final float maxSpeed; // mph
+	public final double elapsed; // ms since start, less pauses
+	public final long timestamp;
+
+	public RecordingStats(long tripid, int state, boolean autoPaused,
+			int numpoints, float distance, float curSpeed, float maxSpeed,
+			double elapsed, long timestamp) {
+		this.tripid = tripid;
+		this.state = state;
+		this.autoPaused = autoPaused;
+		this.numpoints = numpoints;
+		this.distance = distance;
+		this.curSpeed = curSpeed;
+		this.maxSpeed = maxSpeed;
+		this.elapsed = elapsed;
+		this.timestamp = timestamp;
+	}
+}
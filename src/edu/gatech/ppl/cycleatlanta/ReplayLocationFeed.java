@@ -0,0 +1,162 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.List;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Plays a recorded track back as if it came from the GPS, at real time, a
+ * multiple of it, or as fast as the listener can take it. Fix times are
+ * shifted so the track starts when the replay does; the feed's clock
+ * follows the fixes, not the wall, so the recorder sees the ride's own
+ * timing at any speed.
+ *
+ * Removing updates pauses the replay where it is; requesting them again
+ * carries on from there, so the recorder can change rates mid-track.
+ */
+public class ReplayLocationFeed implements LocationFeed {
+	private static final String TAG = "ReplayLocationFeed";
+
+	public static final float SPEED_MAX = 0; // no delay between fixes
+
+	private final List<Location> fixes;
+	private final float speed;
+
+	private Handler handler;
+	private LocationListener listener;
+	private long minTime;
+	private float minDistance;
+
+	private int next = 0;
+	private long timeShift = 0;
+	private long clock = 0;
+	private Location lastDelivered;
+
+	public ReplayLocationFeed(List<Location> fixes, float speed) {
+		this.fixes = fixes;
+		this.speed = speed;
+	}
+
+	public synchronized void requestUpdates(long minTime, float minDistance,
+			LocationListener listener, Looper looper) {
+		stop();
+		this.minTime = minTime;
+		this.minDistance = minDistance;
+		this.listener = listener;
+		this.handler = new Handler(looper);
+
+		if (next == 0 && !fixes.isEmpty()) {
+			timeShift = System.currentTimeMillis() - fixes.get(0).getTime();
+			clock = System.currentTimeMillis();
+		}
+		handler.post(deliver);
+	}
+
+	public synchronized void removeUpdates(LocationListener listener) {
+		if (listener == this.listener) {
+			stop();
+		}
+	}
+
+	public synchronized long currentTimeMillis() {
+		return clock;
+	}
+
+	/**
+	 * Start again from the first fix.
+	 */
+	public synchronized void rewind() {
+		next = 0;
+		lastDelivered = null;
+	}
+
+	public synchronized boolean isFinished() {
+		return next >= fixes.size();
+	}
+
+	private void stop() {
+		if (handler != null) {
+			handler.removeCallbacks(deliver);
+		}
+		handler = null;
+		listener = null;
+	}
+
+	private final Runnable deliver = new Runnable() {
+		public void run() {
+			Location fix;
+			LocationListener target;
+			synchronized (ReplayLocationFeed.this) {
+				if (handler == null || next >= fixes.size()) {
+					return;
+				}
+
+				fix = new Location(fixes.get(next));
+				fix.setTime(fix.getTime() + timeShift);
+				clock = fix.getTime();
+				next++;
+
+				// Same throttling a real provider applies
+				if (lastDelivered != null
+						&& (fix.getTime() - lastDelivered.getTime() < minTime || fix
+								.distanceTo(lastDelivered) < minDistance)) {
+					fix = null;
+				} else {
+					lastDelivered = fix;
+				}
+				target = listener;
+
+				if (next < fixes.size()) {
+					long gap = fixes.get(next).getTime()
+							- fixes.get(next - 1).getTime();
+					if (speed <= SPEED_MAX || gap <= 0) {
+						handler.post(this);
+					} else {
+						handler.postDelayed(this, (long) (gap / speed));
+					}
+				} else {
+					Log.i(TAG, "Replay finished: " + fixes.size() + " fixes");
+				}
+			}
+
+			if (fix != null) {
+				target.onLocationChanged(fix);
+			}
+		}
+	};
+}
@@ -0,0 +1,325 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.location.Location;
+import android.util.Xml;
+
+/**
+ * Reads a recorded track for ReplayLocationFeed. Understands GPX (trkpt),
+ * NMEA ($GPRMC, with altitude and HDOP from $GPGGA) and CSV with a header
+ * naming at least time, lat and lon columns; time in epoch milliseconds.
+ * The format is picked from the file extension.
+ */
+class ReplayTrack {
+	static final String PROVIDER = "replay";
+
+	// Rough meters of horizontal error per unit of HDOP
+	private static final float HDOP_METERS = 5.0f;
+	private static final float KNOTS_TO_MPS = 0.514444f;
+
+	private ReplayTrack() {
+	}
+
+	public static List<Location> load(File file) throws IOException {
+		String name = file.getName().toLowerCase(Locale.US);
+		if (name.endsWith(".gpx")) {
+			return loadGpx(file);
+		} else if (name.endsWith(".nmea") || name.endsWith(".txt")) {
+			return loadNmea(file);
+		} else if (name.endsWith(".csv")) {
+			return loadCsv(file);
+		}
+		throw new IOException("Unknown track format: " + file.getName());
+	}
+
+	// ---GPX -----------------------------------------
+
+	static List<Location> loadGpx(File file) throws IOException {
+		List<Location> fixes = new ArrayList<Location>();
+		InputStream in = new FileInputStream(file);
+		try {
+			XmlPullParser xpp = Xml.newPullParser();
+			xpp.setInput(in, null);
+
+			Location loc = null;
+			String tag = null;
+			for (int ev = xpp.getEventType(); ev != XmlPullParser.END_DOCUMENT; ev = xpp
+					.next()) {
+				if (ev == XmlPullParser.START_TAG) {
+					tag = xpp.getName();
+					if ("trkpt".equals(tag)) {
+						loc = new Location(PROVIDER);
+						loc.setLatitude(Double.parseDouble(xpp
+								.getAttributeValue(null, "lat")));
+						loc.setLongitude(Double.parseDouble(xpp
+								.getAttributeValue(null, "lon")));
+					}
+				} else if (ev == XmlPullParser.TEXT && loc != null
+						&& tag != null) {
+					String text = xpp.getText().trim();
+					if (text.length() == 0) {
+						continue;
+					}
+					if ("ele".equals(tag)) {
+						loc.setAltitude(Double.parseDouble(text));
+					} else if ("time".equals(tag)) {
+						loc.setTime(parseIsoTime(text));
+					} else if ("speed".equals(tag)) {
+						loc.setSpeed(Float.parseFloat(text));
+					} else if ("hdop".equals(tag)) {
+						loc.setAccuracy(HDOP_METERS * Float.parseFloat(text));
+					}
+				} else if (ev == XmlPullParser.END_TAG) {
+					tag = null;
+					if ("trkpt".equals(xpp.getName()) && loc != null) {
+						if (loc.getTime() > 0) {
+							fixes.add(loc);
+						}
+						loc = null;
+					}
+				}
+			}
+		} catch (XmlPullParserException e) {
+			throw new IOException("Bad GPX: " + e.getMessage());
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad GPX: " + e.getMessage());
+		} finally {
+			in.close();
+		}
+		fillSpeeds(fixes);
+		return fixes;
+	}
+
+	// 2012-10-05T14:22:31Z or 2012-10-05T14:22:31.250Z
+	static long parseIsoTime(String text) throws IOException {
+		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss",
+				Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try {
+			long millis = sdf.parse(text.substring(0, 19)).getTime();
+			int dot = text.indexOf('.', 19);
+			if (dot == 19) {
+				int end = dot + 1;
+				while (end < text.length()
+						&& Character.isDigit(text.charAt(end))) {
+					end++;
+				}
+				String frac = (text.substring(dot + 1, end) + "000").substring(
+						0, 3);
+				millis += Integer.parseInt(frac);
+			}
+			return millis;
+		} catch (ParseException e) {
+			throw new IOException("Bad time: " + text);
+		} catch (StringIndexOutOfBoundsException e) {
+			throw new IOException("Bad time: " + text);
+		}
+	}
+
+	// ---NMEA ----------------------------------------
+
+	static List<Location> loadNmea(File file) throws IOException {
+		List<Location> fixes = new ArrayList<Location>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			// GGA carries altitude and HDOP, RMC the date and speed; both
+			// name the same fix by its time of day.
+			String ggaTime = null;
+			double ggaAlt = 0;
+			float ggaAcc = 0;
+
+			String line;
+			while ((line = in.readLine()) != null) {
+				int star = line.indexOf('*');
+				if (star >= 0) {
+					line = line.substring(0, star);
+				}
+				String[] f = line.split(",", -1);
+				try {
+					if (f[0].endsWith("GGA") && f.length > 9) {
+						if (f[6].length() == 0 || f[6].equals("0")) {
+							continue; // no fix
+						}
+						ggaTime = f[1];
+						ggaAcc = f[8].length() > 0 ? HDOP_METERS
+								* Float.parseFloat(f[8]) : 0;
+						ggaAlt = f[9].length() > 0 ? Double.parseDouble(f[9])
+								: 0;
+					} else if (f[0].endsWith("RMC") && f.length > 9) {
+						if (!"A".equals(f[2])) {
+							continue; // void
+						}
+						Location loc = new Location(PROVIDER);
+						loc.setLatitude(nmeaDegrees(f[3], f[4]));
+						loc.setLongitude(nmeaDegrees(f[5], f[6]));
+						if (f[7].length() > 0) {
+							loc.setSpeed(KNOTS_TO_MPS * Float.parseFloat(f[7]));
+						}
+						if (f[8].length() > 0) {
+							loc.setBearing(Float.parseFloat(f[8]));
+						}
+						loc.setTime(nmeaTime(f[9], f[1]));
+						if (f[1].equals(ggaTime)) {
+							loc.setAltitude(ggaAlt);
+							loc.setAccuracy(ggaAcc);
+						}
+						fixes.add(loc);
+					}
+				} catch (NumberFormatException e) {
+					// Skip a garbled sentence, as a receiver would
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return fixes;
+	}
+
+	// ddmm.mmmm / dddmm.mmmm plus hemisphere
+	static double nmeaDegrees(String value, String hemisphere) {
+		double raw = Double.parseDouble(value);
+		int degrees = (int) (raw / 100);
+		double result = degrees + (raw - degrees * 100) / 60.0;
+		if ("S".equals(hemisphere) || "W".equals(hemisphere)) {
+			result = -result;
+		}
+		return result;
+	}
+
+	// ddmmyy plus hhmmss(.sss), UTC
+	static long nmeaTime(String date, String time) throws NumberFormatException {
+		SimpleDateFormat sdf = new SimpleDateFormat("ddMMyyHHmmss", Locale.US);
+		sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try {
+			long millis = sdf.parse(date + time.substring(0, 6)).getTime();
+			if (time.length() > 7) {
+				millis += (long) (1000 * Double.parseDouble(time.substring(6)));
+			}
+			return millis;
+		} catch (ParseException e) {
+			throw new NumberFormatException("Bad time: " + date + " " + time);
+		} catch (StringIndexOutOfBoundsException e) {
+			throw new NumberFormatException("Bad time: " + date + " " + time);
+		}
+	}
+
+	// ---CSV -----------------------------------------
+
+	static List<Location> loadCsv(File file) throws IOException {
+		List<Location> fixes = new ArrayList<Location>();
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line = in.readLine();
+			if (line == null) {
+				return fixes;
+			}
+			String[] header = line.toLowerCase(Locale.US).split(",");
+			int COL_TIME = column(header, "time");
+			int COL_LAT = column(header, "lat");
+			int COL_LON = column(header, "lon");
+			int COL_ALT = column(header, "alt");
+			int COL_ACC = column(header, "acc");
+			int COL_SPEED = column(header, "speed");
+			if (COL_TIME < 0 || COL_LAT < 0 || COL_LON < 0) {
+				throw new IOException("CSV needs time, lat and lon columns");
+			}
+
+			while ((line = in.readLine()) != null) {
+				String[] f = line.split(",", -1);
+				try {
+					Location loc = new Location(PROVIDER);
+					loc.setTime((long) Double.parseDouble(f[COL_TIME]));
+					loc.setLatitude(Double.parseDouble(f[COL_LAT]));
+					loc.setLongitude(Double.parseDouble(f[COL_LON]));
+					if (COL_ALT >= 0 && f[COL_ALT].length() > 0) {
+						loc.setAltitude(Double.parseDouble(f[COL_ALT]));
+					}
+					if (COL_ACC >= 0 && f[COL_ACC].length() > 0) {
+						loc.setAccuracy(Float.parseFloat(f[COL_ACC]));
+					}
+					if (COL_SPEED >= 0 && f[COL_SPEED].length() > 0) {
+						loc.setSpeed(Float.parseFloat(f[COL_SPEED]));
+					}
+					fixes.add(loc);
+				} catch (NumberFormatException e) {
+					// Skip the bad row
+				} catch (ArrayIndexOutOfBoundsException e) {
+					// Skip the short row
+				}
+			}
+		} finally {
+			in.close();
+		}
+		fillSpeeds(fixes);
+		return fixes;
+	}
+
+	// First column whose name starts with prefix ("lon" matches "longitude")
+	private static int column(String[] header, String prefix) {
+		for (int i = 0; i < header.length; i++) {
+			if (header[i].trim().startsWith(prefix)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// GPX and CSV tracks often carry no speed; the sampling policy and the
+	// stats need one, so derive it from neighbouring fixes.
+	private static void fillSpeeds(List<Location> fixes) {
+		for (int i = 1; i < fixes.size(); i++) {
+			Location prev = fixes.get(i - 1);
+			Location loc = fixes.get(i);
+			long dt = loc.getTime() - prev.getTime();
+			if (!loc.hasSpeed() && dt > 0) {
+				loc.setSpeed(prev.distanceTo(loc) * 1000.0f / dt);
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+import android.widget.ImageView;
+
+/**
+ * The icon of one list row. setImageResource inflates a new Drawable each
+ * time the resource changes, so a recycled row would allocate one per
+ * bind; here each icon is inflated once per row and set again from then
+ * on. Drawables are never shared between rows, as they keep their view's
+ * bounds and callback.
+ */
+class RowIcon {
+	private final Resources res;
+	private final ImageView view;
+	private final SparseArray<Drawable> drawables = new SparseArray<Drawable>();
+
+	RowIcon(Resources res, ImageView view) {
+		this.res = res;
+		this.view = view;
+	}
+
+	/**
+	 * Show drawable resource resId, or nothing for 0.
+	 */
+	void set(int resId) {
+		if (resId == 0) {
+			view.setImageDrawable(null);
+			return;
+		}
+		Drawable d = drawables.get(resId);
+		if (d == null) {
+			d = res.getDrawable(resId);
+			drawables.put(resId, d);
+		}
+		view.setImageDrawable(d);
+	}
+}
@@ -1,10 +1,10 @@
 package edu.gatech.ppl.cycleatlanta;
 
 import java.text.SimpleDateFormat;
+import java.util.Date;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -13,97 +13,99 @@ import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
 public class SavedNotesAdapter extends SimpleCursorAdapter {
-	private final Context context;
-	private final String[] from;
-	private final int[] to;
-	Cursor cursor;
+	private static final String[] noteTypeText = new String[] {
+			"Pavement issue", "Traffic signal", "Enforcement", "Bike parking",
+			"Bike lane issue", "Note this issue", "Bike parking",
+			"Bike shops", "Public restrooms", "Secret passage",
+			"Water fountains", "Note this asset" };
+
+	private final LayoutInflater inflater;
+
+	// Shared by every row; binding only ever happens on the UI thread
+	private final SimpleDateFormat sdfStart = new SimpleDateFormat(
+			"MMMM d, y  HH:mm");
+	private final Date date = new Date();
+
+	// Column indices of the current cursor, looked up once per swap
+	private int colRecorded, colType, colStatus;
+	// Each row's date, formatted the first time it is shown, so scrolling
+	// back over a row allocates nothing
+	private String[] starts;
+
+	static class ViewHolder {
+		TextView textViewStart, textViewType;
+		RowIcon noteIcon;
+	}
 
 	public SavedNotesAdapter(Context context, int layout, Cursor c,
 			String[] from, int[] to, int flags) {
 		super(context, R.layout.saved_notes_list_item, c, from, to, flags);
-		this.context = context;
-		this.from = from;
-		this.to = to;
-		this.cursor = c;
+		inflater = LayoutInflater.from(context);
+		findColumns(c);
 	}
 
 	@Override
-	public View getView(int position, View convertView, ViewGroup parent) {
-		LayoutInflater inflater = (LayoutInflater) context
-				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View rowView = inflater.inflate(R.layout.saved_notes_list_item, parent,
-				false);
-		TextView textViewStart = (TextView) rowView
-				.findViewById(R.id.TextViewStart);
-		TextView textViewType = (TextView) rowView
-				.findViewById(R.id.TextViewType);
-		ImageView imageNoteType = (ImageView) rowView
-				.findViewById(R.id.ImageNoteType);
-
-		cursor.moveToPosition(position);
+	public Cursor swapCursor(Cursor c) {
+		Cursor old = super.swapCursor(c);
+		findColumns(c);
+		return old;
+	}
 
-		SimpleDateFormat sdfStart = new SimpleDateFormat("MMMM d, y  HH:mm");
-		// sdfStart.setTimeZone(TimeZone.getTimeZone("UTC"));
-		Double startTime = cursor.getDouble(cursor
-				.getColumnIndex("noterecorded"));
-		String start = sdfStart.format(startTime);
+	private void findColumns(Cursor c) {
+		if (c == null) {
+			starts = null;
+			return;
+		}
+		starts = new String[c.getCount()];
+		colRecorded = c.getColumnIndex("noterecorded");
+		colType = c.getColumnIndex("notetype");
+		colStatus = c.getColumnIndex("notestatus");
+	}
 
-		textViewStart.setText(start);
+	@Override
+	public View newView(Context context, Cursor cursor, ViewGroup parent) {
+		View rowView = inflater.inflate(R.layout.saved_notes_list_item,
+				parent, false);
+		ViewHolder holder = new ViewHolder();
+		holder.textViewStart = (TextView) rowView
+				.findViewById(R.id.TextViewStart);
+		holder.textViewType = (TextView) rowView
+				.findViewById(R.id.TextViewType);
+		holder.noteIcon = new RowIcon(context.getResources(),
+				(ImageView) rowView.findViewById(R.id.ImageNoteType));
+		rowView.setTag(holder);
+		return rowView;
+	}
 
-		String[] noteTypeText = new String[] { "Pavement issue",
-				"Traffic signal", "Enforcement", "Bike parking",
-				"Bike lane issue", "Note this issue", "Bike parking",
-				"Bike shops", "Public restrooms", "Secret passage",
-				"Water fountains", "Note this asset" };
+	@Override
+	public void bindView(View view, Context context, Cursor cursor) {
+		ViewHolder holder = (ViewHolder) view.getTag();
 
-		textViewType.setText(noteTypeText[cursor.getInt(cursor
-				.getColumnIndex("notetype"))]);
+		int position = cursor.getPosition();
+		String start = starts[position];
+		if (start == null) {
+			date.setTime((long) cursor.getDouble(colRecorded));
+			start = sdfStart.format(date);
+			starts[position] = start;
+		}
+		holder.textViewStart.setText(start);
 
-		int status = cursor.getInt(cursor.getColumnIndex("notestatus"));
-		Log.v("Jason", "Status: " + status);
+		int notetype = cursor.getInt(colType);
+		if (notetype >= 0 && notetype < noteTypeText.length) {
+			holder.textViewType.setText(noteTypeText[notetype]);
+		} else {
+			holder.textViewType.setText("");
+		}
 
-		if (status == 2) {
-			switch (cursor.getInt(cursor.getColumnIndex("notetype"))) {
-			case 0:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 1:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 2:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 3:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 4:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 5:
-				imageNoteType.setImageResource(R.drawable.noteissuepicker_high);
-				break;
-			case 6:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			case 7:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			case 8:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			case 9:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			case 10:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			case 11:
-				imageNoteType.setImageResource(R.drawable.noteassetpicker_high);
-				break;
-			}
-		} else if (status == 1) {
-			imageNoteType.setImageResource(R.drawable.failedupload_high);
+		int status = cursor.getInt(colStatus);
+		if (status == NoteData.STATUS_SENT) {
+			// Types 0-5 are issues, 6-11 assets
+			holder.noteIcon.set(notetype <= 5 ? R.drawable.noteissuepicker_high
+					: R.drawable.noteassetpicker_high);
+		} else if (status == NoteData.STATUS_COMPLETE) {
+			holder.noteIcon.set(R.drawable.failedupload_high);
+		} else {
+			holder.noteIcon.set(0);
 		}
-		return rowView;
 	}
-}
\ No newline at end of file
+}
@@ -2,127 +2,427 @@ package edu.gatech.ppl.cycleatlanta;
 
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TimeZone;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.Cursor;
-import android.util.Log;
+import android.os.AsyncTask;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
-import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
-public class SavedTripsAdapter extends SimpleCursorAdapter {
+/**
+ * The saved trips list, read a page at a time. The fragment's loader
+ * delivers only the trips' keys (_id, start and status), so the count,
+ * every row's id and its view type are known up front; the full rows are
+ * queried in the background a page at a time as the list scrolls, each
+ * page keyed on the last (start, _id) of the page before it. Each page is
+ * formatted for display as it is read, so binding a row only hands
+ * existing strings and drawables to its views and allocates nothing. Only
+ * MAX_CACHED_PAGES pages of rows are held at once, so memory does not grow
+ * with the length of the history; a page scrolled back to after being
+ * dropped is queried again.
+ */
+public class SavedTripsAdapter extends BaseAdapter {
+	static final int PAGE_SIZE = 50;
+	static final int MAX_CACHED_PAGES = 4;
+
+	// Also used, left blank, for a row whose page is still being read
+	private static final int TYPE_TRIP = 0;
+	// A trip still being recorded gets an empty row of its own layout
+	private static final int TYPE_NULL = 1;
+
 	private final Context context;
-	private final String[] from;
-	private final int[] to;
-	Cursor cursor;
+	private final Resources res;
+	private final LayoutInflater inflater;
+	private final ThumbnailLoader thumbnails;
+
+	// Only used by format(), which holds the adapter's lock
+	private final SimpleDateFormat sdfStart = new SimpleDateFormat(
+			"MMMM d, y  HH:mm");
+	private final SimpleDateFormat sdfDuration = new SimpleDateFormat(
+			"HH:mm:ss");
+	private final DecimalFormat df = new DecimalFormat("0.#");
+	private final Date date = new Date();
+
+	// Column indices, the same for every page; looked up once
+	private int colId = -1, colStart, colEnd, colPurp, colDistance,
+			colStatus;
+	private int colDuration, colCO2, colCalories;
+
+	// Owned by the loader, so never closed here: _id, start and status of
+	// every trip in list order. Unlike the pages this is O(trips), kept
+	// whole on purpose; see DbAdapter.fetchTripKeys()
+	private Cursor keys;
+	private int keyId, keyStart, keyStatus;
+	// Cached pages by number, least recently used first
+	private final LinkedHashMap<Integer, Page> pages = new LinkedHashMap<Integer, Page>(
+			MAX_CACHED_PAGES + 1, 0.75f, true);
+	private final HashSet<Integer> loading = new HashSet<Integer>();
+	// Bumped on every reset, so late page loads for old data are dropped
+	private int generation;
+
+	static class ViewHolder {
+		TextView textViewStart, textViewPurpose, textViewInfo;
+		TextView textViewCO2, textViewCalory;
+		ImageView imageThumbnail;
+		RowIcon purposeIcon;
+	}
+
+	/**
+	 * A page of rows as they are shown, one array entry per row. The trip
+	 * ids are boxed here too, as the thumbnails are keyed on them.
+	 */
+	static class Page {
+		final Long[] tripid;
+		final String[] start, purpose, info, co2, calories;
+		final int[] icon;
+
+		Page(int rows) {
+			tripid = new Long[rows];
+			start = new String[rows];
+			purpose = new String[rows];
+			info = new String[rows];
+			co2 = new String[rows];
+			calories = new String[rows];
+			icon = new int[rows];
+		}
+	}
+
+	public SavedTripsAdapter(Context context) {
+		this.context = context.getApplicationContext();
+		res = context.getResources();
+		inflater = LayoutInflater.from(context);
+		thumbnails = new ThumbnailLoader(context);
+		sdfDuration.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * Start over from the trips' keys, as delivered by the loader after the
+	 * trips changed: one short row per trip, with _id, start and status.
+	 * Pass null to empty the list.
+	 */
+	public void setKeys(Cursor c) {
+		releasePages();
+		keys = c;
+		if (c != null) {
+			keyId = c.getColumnIndex("_id");
+			keyStart = c.getColumnIndex("start");
+			keyStatus = c.getColumnIndex("status");
+		}
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Close every page this adapter opened and stop loading thumbnails.
+	 * Call when the list goes away.
+	 */
+	public void release() {
+		releasePages();
+		keys = null;
+		thumbnails.quit();
+	}
+
+	private void releasePages() {
+		generation++;
+		pages.clear();
+		loading.clear();
+	}
 
-	public SavedTripsAdapter(Context context, int layout, Cursor c,
-			String[] from, int[] to, int flags) {
-		super(context, R.layout.saved_trips_list_item, c, from, to, flags);
-		this.context = context;
-		this.from = from;
-		this.to = to;
-		this.cursor = c;
+	private void findColumns(Cursor c) {
+		if (colId >= 0) {
+			return;
+		}
+		colId = c.getColumnIndex("_id");
+		colStart = c.getColumnIndex("start");
+		colEnd = c.getColumnIndex("endtime");
+		colPurp = c.getColumnIndex("purp");
+		colDistance = c.getColumnIndex("distance");
+		colStatus = c.getColumnIndex("status");
+		colDuration = c.getColumnIndex("duration");
+		colCO2 = c.getColumnIndex("co2");
+		colCalories = c.getColumnIndex("calories");
+	}
+
+	/**
+	 * The page holding position, or null while it is being read; the list
+	 * is refreshed once it arrives.
+	 */
+	private Page getPage(int position) {
+		int page = position / PAGE_SIZE;
+		Page p = pages.get(page);
+		if (p == null) {
+			requestPage(page);
+		}
+		return p;
+	}
+
+	/**
+	 * The upload status of the trip at position, known from its key even
+	 * while its page is being read.
+	 */
+	public int getStatus(int position) {
+		keys.moveToPosition(position);
+		return keys.getInt(keyStatus);
+	}
+
+	/**
+	 * Format the rows of a page just read, in the background. The cursor
+	 * is left open for the caller to close.
+	 */
+	synchronized Page format(Cursor c) {
+		findColumns(c);
+		Page p = new Page(c.getCount());
+		for (int i = 0; c.moveToPosition(i); i++) {
+			p.tripid[i] = Long.valueOf(c.getLong(colId));
+
+			double startTime = c.getDouble(colStart);
+			date.setTime((long) startTime);
+			p.start[i] = sdfStart.format(date);
+
+			String purpose = c.getString(colPurp);
+			p.purpose[i] = purpose;
+
+			// Summary columns are written in the background once a trip is
+			// finished; until then work them out from the basic ones
+			double duration;
+			float CO2, calory;
+			if (!c.isNull(colDuration)) {
+				duration = c.getDouble(colDuration);
+				CO2 = c.getFloat(colCO2);
+				calory = c.getFloat(colCalories);
+			} else {
+				float distance = c.getFloat(colDistance);
+				duration = c.getDouble(colEnd) - startTime;
+				CO2 = TripStats.co2(distance);
+				calory = TripStats.calories(distance);
+			}
+
+			date.setTime((long) duration);
+			p.info[i] = sdfDuration.format(date);
+			p.co2[i] = "CO2 Saved: " + df.format(CO2) + " lbs";
+			p.calories[i] = "Calories Burned: " + df.format(calory) + " kcal";
+
+			if (c.getInt(colStatus) == TripData.STATUS_SENT) {
+				p.icon[i] = purposeIcon(purpose);
+			} else {
+				p.icon[i] = R.drawable.failedupload_high;
+			}
+		}
+		return p;
+	}
+
+	private void requestPage(int page) {
+		if (keys == null || pages.containsKey(page) || loading.contains(page)
+				|| page * PAGE_SIZE >= keys.getCount()) {
+			return;
+		}
+		loading.add(page);
+		new PageTask(page, generation).execute();
+	}
+
+	private class PageTask extends AsyncTask<Void, Void, Page> {
+		private final int page, gen;
+		private final double afterStart;
+		private final long afterId;
+
+		PageTask(int page, int gen) {
+			this.page = page;
+			this.gen = gen;
+			// Page n starts after the last key of page n - 1
+			if (page > 0) {
+				keys.moveToPosition(page * PAGE_SIZE - 1);
+				afterStart = keys.getDouble(keyStart);
+				afterId = keys.getLong(keyId);
+			} else {
+				afterStart = 0;
+				afterId = 0;
+			}
+		}
+
+		@Override
+		protected Page doInBackground(Void... params) {
+			DbAdapter db = new DbAdapter(context);
+			db.openReadOnly();
+			try {
+				Cursor c = page > 0 ? db.fetchTripsPage(afterStart, afterId,
+						PAGE_SIZE) : db.fetchTripsPage(PAGE_SIZE);
+				try {
+					return format(c);
+				} finally {
+					c.close();
+				}
+			} finally {
+				db.close();
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Page p) {
+			if (gen != generation) {
+				return;
+			}
+			putPage(page, p);
+		}
+	}
+
+	// Hold a page of rows just read, as numbered in the current keys
+	void putPage(int page, Page p) {
+		loading.remove(page);
+		pages.put(page, p);
+		trimPages(page);
+		notifyDataSetChanged();
+	}
+
+	// Drop the least recently used pages beyond the limit, never the page
+	// just loaded
+	private void trimPages(int keep) {
+		Iterator<Map.Entry<Integer, Page>> it = pages.entrySet().iterator();
+		while (pages.size() > MAX_CACHED_PAGES && it.hasNext()) {
+			Map.Entry<Integer, Page> e = it.next();
+			if (e.getKey() == keep) {
+				continue;
+			}
+			it.remove();
+		}
+	}
+
+	@Override
+	public int getCount() {
+		return keys != null ? keys.getCount() : 0;
+	}
+
+	@Override
+	public Object getItem(int position) {
+		// The trip's id, once its page is read
+		Page p = getPage(position);
+		return p != null ? p.tripid[position % PAGE_SIZE] : null;
+	}
+
+	@Override
+	public long getItemId(int position) {
+		// From the keys, so known even while the row's page is being read
+		keys.moveToPosition(position);
+		return keys.getLong(keyId);
+	}
+
+	@Override
+	public boolean hasStableIds() {
+		return true;
+	}
+
+	@Override
+	public int getViewTypeCount() {
+		return 2;
+	}
+
+	@Override
+	public int getItemViewType(int position) {
+		keys.moveToPosition(position);
+		if (keys.getInt(keyStatus) == TripData.STATUS_INCOMPLETE) {
+			return TYPE_NULL;
+		}
+		return TYPE_TRIP;
 	}
 
 	@Override
 	public View getView(int position, View convertView, ViewGroup parent) {
-		LayoutInflater inflater = (LayoutInflater) context
-				.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		View rowView = inflater.inflate(R.layout.saved_trips_list_item, parent,
-				false);
-		TextView textViewStart = (TextView) rowView
+		// Past the middle of a page: read the next one ahead
+		if (position % PAGE_SIZE >= PAGE_SIZE / 2) {
+			requestPage(position / PAGE_SIZE + 1);
+		}
+
+		int type = getItemViewType(position);
+		View rowView = convertView;
+		if (rowView == null) {
+			rowView = newView(type, parent);
+		}
+		if (type == TYPE_TRIP) {
+			Page p = getPage(position);
+			if (p != null) {
+				bindView((ViewHolder) rowView.getTag(), p, position
+						% PAGE_SIZE);
+			} else {
+				clearView((ViewHolder) rowView.getTag());
+			}
+		}
+		return rowView;
+	}
+
+	private View newView(int type, ViewGroup parent) {
+		if (type == TYPE_NULL) {
+			return inflater.inflate(R.layout.saved_trips_list_item_null,
+					parent, false);
+		}
+		View rowView = inflater.inflate(R.layout.saved_trips_list_item,
+				parent, false);
+		ViewHolder holder = new ViewHolder();
+		holder.textViewStart = (TextView) rowView
 				.findViewById(R.id.TextViewStart);
-		TextView textViewPurpose = (TextView) rowView
+		holder.textViewPurpose = (TextView) rowView
 				.findViewById(R.id.TextViewPurpose);
-		TextView textViewInfo = (TextView) rowView
+		holder.textViewInfo = (TextView) rowView
 				.findViewById(R.id.TextViewInfo);
-		ImageView imageTripPurpose = (ImageView) rowView
-				.findViewById(R.id.ImageTripPurpose);
-		TextView textViewCO2 = (TextView) rowView
+		holder.purposeIcon = new RowIcon(res,
+				(ImageView) rowView.findViewById(R.id.ImageTripPurpose));
+		holder.textViewCO2 = (TextView) rowView
 				.findViewById(R.id.TextViewCO2);
-		TextView textViewCalory = (TextView) rowView
+		holder.textViewCalory = (TextView) rowView
 				.findViewById(R.id.TextViewCalory);
+		holder.imageThumbnail = (ImageView) rowView
+				.findViewById(R.id.ImageTripThumbnail);
+		rowView.setTag(holder);
+		return rowView;
+	}
 
-		cursor.moveToPosition(position);
-
-		SimpleDateFormat sdfStart = new SimpleDateFormat("MMMM d, y  HH:mm");
-		// sdfStart.setTimeZone(TimeZone.getTimeZone("UTC"));
-		Double startTime = cursor.getDouble(cursor.getColumnIndex("start"));
-		String start = sdfStart.format(startTime);
+	private void bindView(ViewHolder holder, Page p, int row) {
+		holder.textViewStart.setText(p.start[row]);
+		holder.textViewPurpose.setText(p.purpose[row]);
+		holder.textViewInfo.setText(p.info[row]);
+		holder.textViewCO2.setText(p.co2[row]);
+		holder.textViewCalory.setText(p.calories[row]);
+		holder.purposeIcon.set(p.icon[row]);
+		thumbnails.load(p.tripid[row], holder.imageThumbnail);
+	}
 
-		textViewStart.setText(start);
-		textViewPurpose
-				.setText(cursor.getString(cursor.getColumnIndex("purp")));
+	private void clearView(ViewHolder holder) {
+		holder.textViewStart.setText("");
+		holder.textViewPurpose.setText("");
+		holder.textViewInfo.setText("");
+		holder.textViewCO2.setText("");
+		holder.textViewCalory.setText("");
+		holder.purposeIcon.set(0);
+		thumbnails.clear(holder.imageThumbnail);
+	}
 
-		SimpleDateFormat sdfDuration = new SimpleDateFormat("HH:mm:ss");
-		sdfDuration.setTimeZone(TimeZone.getTimeZone("UTC"));
-		Double endTime = cursor.getDouble(cursor.getColumnIndex("endtime"));
-		String duration = sdfDuration.format(endTime - startTime);
-		Log.v("Jason", "Duration: " + duration);
-
-		textViewInfo.setText(duration);
-
-		Double CO2 = cursor.getFloat(cursor.getColumnIndex("distance")) * 0.0006212 * 0.93;
-		DecimalFormat df = new DecimalFormat("0.#");
-		String CO2String = df.format(CO2);
-		textViewCO2.setText("CO2 Saved: " + CO2String + " lbs");
-
-		Double calory = cursor.getFloat(cursor.getColumnIndex("distance")) * 0.0006212 * 49 - 1.69;
-		String caloryString = df.format(calory);
-		if (calory <= 0) {
-			textViewCalory.setText("Calories Burned: " + 0 + " kcal");
-		} else {
-			textViewCalory
-					.setText("Calories Burned: " + caloryString + " kcal");
-		}
-
-		int status = cursor.getInt(cursor.getColumnIndex("status"));
-		Log.v("Jason", "Status: " + status);
-		
-		if (status == 0){
-			//textViewPurpose.setText("In Progress");
-			rowView.setVisibility(View.GONE);
-			rowView = inflater.inflate(R.layout.saved_trips_list_item_null, parent,
-					false);
-		}
-		else {
-			rowView.setVisibility(View.VISIBLE);
-		}
-
-		if (status == 2) {
-			if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Commute")) {
-				imageTripPurpose.setImageResource(R.drawable.commute_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"School")) {
-				imageTripPurpose.setImageResource(R.drawable.school_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Work-Related")) {
-				imageTripPurpose.setImageResource(R.drawable.workrel_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Exercise")) {
-				imageTripPurpose.setImageResource(R.drawable.exercise_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Social")) {
-				imageTripPurpose.setImageResource(R.drawable.social_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Shopping")) {
-				imageTripPurpose.setImageResource(R.drawable.shopping_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Errand")) {
-				imageTripPurpose.setImageResource(R.drawable.errands_high);
-			} else if (cursor.getString(cursor.getColumnIndex("purp")).equals(
-					"Other")) {
-				imageTripPurpose.setImageResource(R.drawable.other_high);
-			}
-		} else if (status == 1) {
-			imageTripPurpose.setImageResource(R.drawable.failedupload_high);
+	private static int purposeIcon(String purpose) {
+		if ("Commute".equals(purpose)) {
+			return R.drawable.commute_high;
+		} else if ("School".equals(purpose)) {
+			return R.drawable.school_high;
+		} else if ("Work-Related".equals(purpose)) {
+			return R.drawable.workrel_high;
+		} else if ("Exercise".equals(purpose)) {
+			return R.drawable.exercise_high;
+		} else if ("Social".equals(purpose)) {
+			return R.drawable.social_high;
+		} else if ("Shopping".equals(purpose)) {
+			return R.drawable.shopping_high;
+		} else if ("Errand".equals(purpose)) {
+			return R.drawable.errands_high;
+		} else if ("Other".equals(purpose)) {
+			return R.drawable.other_high;
 		}
-		return rowView;
+		// A recycled row must not keep the previous trip's icon
+		return 0;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.location.Location;
+
+/**
+ * Samples slowly while the rider is stopped or crawling and tightens up when
+ * moving fast or turning. Slowing down needs a few consistent fixes so a
+ * single noisy speed reading doesn't drop the rate; speeding up is
+ * immediate so corners aren't cut.
+ */
+public class SpeedAdaptiveSamplingPolicy implements SamplingPolicy {
+	public static final int BAND_STATIONARY = 0;
+	public static final int BAND_SLOW = 1;
+	public static final int BAND_CRUISE = 2;
+	public static final int BAND_FAST = 3;
+
+	// Indexed by band
+	static final long[] MIN_TIME = { 10000, 3000, 2000, 1000 };
+	static final float[] MIN_DISTANCE = { 10.0f, 5.0f, 0.0f, 0.0f };
+
+	static final float STATIONARY_SPEED = 0.5f; // m/s
+	static final float SLOW_SPEED = 2.5f; // m/s, about 5.6 mph
+	static final float FAST_SPEED = 7.0f; // m/s, about 15.7 mph
+	static final float CORNER_DEGREES = 30.0f;
+	static final int FIXES_TO_RELAX = 3;
+
+	int band;
+	int pendingBand;
+	int pendingCount;
+	float lastBearing;
+	boolean hasLastBearing;
+
+	public SpeedAdaptiveSamplingPolicy() {
+		reset();
+	}
+
+	public void reset() {
+		band = BAND_FAST; // start tight until we know what the rider is doing
+		pendingBand = band;
+		pendingCount = 0;
+		hasLastBearing = false;
+	}
+
+	public long getMinTime() {
+		return MIN_TIME[band];
+	}
+
+	public float getMinDistance() {
+		return MIN_DISTANCE[band];
+	}
+
+	public int getBand() {
+		return band;
+	}
+
+	public boolean update(Location loc) {
+		int wanted = classify(loc);
+
+		if (wanted > band) {
+			// Tighten right away
+			pendingCount = 0;
+			band = wanted;
+			return true;
+		}
+		if (wanted == band) {
+			pendingCount = 0;
+			return false;
+		}
+
+		// Relax only once the lower band has held for a few fixes
+		if (wanted != pendingBand) {
+			pendingBand = wanted;
+			pendingCount = 0;
+		}
+		if (++pendingCount >= FIXES_TO_RELAX) {
+			pendingCount = 0;
+			band = wanted;
+			return true;
+		}
+		return false;
+	}
+
+	int classify(Location loc) {
+		float speed = loc.hasSpeed() ? loc.getSpeed() : 0.0f;
+
+		boolean cornering = false;
+		if (loc.hasBearing() && speed > STATIONARY_SPEED) {
+			float bearing = loc.getBearing();
+			if (hasLastBearing) {
+				float turn = Math.abs(bearing - lastBearing) % 360.0f;
+				if (turn > 180.0f) {
+					turn = 360.0f - turn;
+				}
+				cornering = turn > CORNER_DEGREES;
+			}
+			lastBearing = bearing;
+			hasLastBearing = true;
+		}
+
+		if (cornering || speed > FAST_SPEED) {
+			return BAND_FAST;
+		} else if (speed > SLOW_SPEED) {
+			return BAND_CRUISE;
+		} else if (speed > STATIONARY_SPEED) {
+			return BAND_SLOW;
+		}
+		return BAND_STATIONARY;
+	}
+}
@@ -0,0 +1,131 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.LinkedList;
+
+import android.location.Location;
+
+/**
+ * Decides when the rider has stopped (red light, coffee) and when they set
+ * off again. Stopped means low speed and the fixes staying in a small
+ * cluster for STOP_DELAY; moving again means real speed or leaving the spot
+ * where we stopped. The two thresholds differ so GPS jitter at a light
+ * doesn't flip us back and forth.
+ */
+class StationaryDetector {
+	static final long STOP_DELAY = 30000; // ms of stillness before pausing
+	static final float STOP_SPEED = 0.8f; // m/s, mean over the window
+	static final float STOP_SPREAD = 12.0f; // m, RMS distance from centroid
+	static final float MOVE_SPEED = 2.0f; // m/s
+	static final float MOVE_DISTANCE = 30.0f; // m from where we stopped
+	static final float MAX_ACCURACY = 30.0f; // m; worse fixes can't say we moved
+
+	private final LinkedList<Location> window = new LinkedList<Location>();
+	private boolean stationary = false;
+	private Location anchor;
+	private long stoppedSince = 0;
+
+	/**
+	 * @return true if the rider just stopped or just started moving again
+	 */
+	public boolean update(Location loc) {
+		if (stationary) {
+			boolean trusted = !loc.hasAccuracy()
+					|| loc.getAccuracy() <= MAX_ACCURACY;
+			if (trusted
+					&& (loc.getSpeed() > MOVE_SPEED || loc.distanceTo(anchor) > MOVE_DISTANCE)) {
+				stationary = false;
+				anchor = null;
+				window.clear();
+				window.add(loc);
+				return true;
+			}
+			return false;
+		}
+
+		window.add(loc);
+		// Keep just enough history to cover STOP_DELAY
+		while (window.size() > 1
+				&& window.get(1).getTime() <= loc.getTime() - STOP_DELAY) {
+			window.removeFirst();
+		}
+		if (window.getFirst().getTime() > loc.getTime() - STOP_DELAY) {
+			return false;
+		}
+
+		double lat = 0, lgt = 0, speed = 0;
+		for (Location l : window) {
+			lat += l.getLatitude();
+			lgt += l.getLongitude();
+			speed += l.getSpeed();
+		}
+		int n = window.size();
+		if (speed / n >= STOP_SPEED) {
+			return false;
+		}
+
+		Location centroid = new Location(loc);
+		centroid.setLatitude(lat / n);
+		centroid.setLongitude(lgt / n);
+		double sumSq = 0;
+		for (Location l : window) {
+			float d = l.distanceTo(centroid);
+			sumSq += d * d;
+		}
+		if (Math.sqrt(sumSq / n) >= STOP_SPREAD) {
+			return false;
+		}
+
+		stationary = true;
+		anchor = centroid;
+		stoppedSince = window.getFirst().getTime();
+		window.clear();
+		return true;
+	}
+
+	public boolean isStationary() {
+		return stationary;
+	}
+
+	// Time of the first fix of the still window that triggered the stop
+	public long getStoppedSince() {
+		return stoppedSince;
+	}
+
+	public void reset() {
+		window.clear();
+		stationary = false;
+		anchor = null;
+		stoppedSince = 0;
+	}
+}
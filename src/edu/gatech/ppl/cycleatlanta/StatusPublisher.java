@@ -0,0 +1,147 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Fans RecordingStats out to weakly held listeners on the main thread. A
+ * burst of publish() calls coalesces into at most one delivery per
+ * 1/maxRate seconds, carrying the latest snapshot; when no listener is
+ * visible nothing is delivered at all.
+ */
+class StatusPublisher {
+	public static final float DEFAULT_MAX_RATE = 2.0f; // deliveries per second
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final ArrayList<WeakReference<RecordingStatusListener>> listeners = new ArrayList<WeakReference<RecordingStatusListener>>();
+	private long minInterval;
+	private RecordingStats latest;
+	private boolean scheduled = false;
+	private long lastDelivery = 0;
+
+	public StatusPublisher() {
+		setMaxRate(DEFAULT_MAX_RATE);
+	}
+
+	public synchronized void setMaxRate(float perSecond) {
+		minInterval = perSecond > 0 ? (long) (1000 / perSecond) : 0;
+	}
+
+	public synchronized void addListener(RecordingStatusListener listener) {
+		for (WeakReference<RecordingStatusListener> ref : listeners) {
+			if (ref.get() == listener) {
+				return;
+			}
+		}
+		listeners.add(new WeakReference<RecordingStatusListener>(listener));
+		// Bring the newcomer up to date
+		if (latest != null) {
+			schedule();
+		}
+	}
+
+	public synchronized void removeListener(RecordingStatusListener listener) {
+		Iterator<WeakReference<RecordingStatusListener>> it = listeners
+				.iterator();
+		while (it.hasNext()) {
+			RecordingStatusListener l = it.next().get();
+			if (l == null || l == listener) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Worth building a snapshot? Call from the main thread.
+	 */
+	public synchronized boolean hasVisibleListener() {
+		for (WeakReference<RecordingStatusListener> ref : listeners) {
+			RecordingStatusListener l = ref.get();
+			if (l != null && l.isStatusVisible()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Any thread
+	public synchronized void publish(RecordingStats stats) {
+		latest = stats;
+		if (!listeners.isEmpty()) {
+			schedule();
+		}
+	}
+
+	private void schedule() {
+		if (scheduled) {
+			return;
+		}
+		scheduled = true;
+		long wait = lastDelivery + minInterval - SystemClock.uptimeMillis();
+		handler.postDelayed(deliver, Math.max(0, wait));
+	}
+
+	private final Runnable deliver = new Runnable() {
+		public void run() {
+			RecordingStats stats;
+			ArrayList<RecordingStatusListener> targets = new ArrayList<RecordingStatusListener>();
+			synchronized (StatusPublisher.this) {
+				scheduled = false;
+				lastDelivery = SystemClock.uptimeMillis();
+				stats = latest;
+				Iterator<WeakReference<RecordingStatusListener>> it = listeners
+						.iterator();
+				while (it.hasNext()) {
+					RecordingStatusListener l = it.next().get();
+					if (l == null) {
+						it.remove();
+					} else if (l.isStatusVisible()) {
+						targets.add(l);
+					}
+				}
+			}
+			if (stats == null) {
+				return;
+			}
+			for (RecordingStatusListener l : targets) {
+				l.onRecordingStats(stats);
+			}
+		}
+	};
+}
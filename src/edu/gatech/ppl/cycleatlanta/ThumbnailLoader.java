@@ -0,0 +1,227 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.File;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.widget.ImageView;
+
+/**
+ * Puts trip thumbnails into list rows. Bitmaps already in memory are set
+ * straight away; anything else is decoded from TripThumbnails' files on a
+ * background thread and set when it arrives, if the row still shows that
+ * trip. Each view keeps one drawable that is pointed at whichever bitmap
+ * it shows, so showing a cached thumbnail allocates nothing. Nothing here
+ * touches the database.
+ */
+class ThumbnailLoader implements Handler.Callback {
+	private static final int MSG_DECODE = 1;
+	private static final int MSG_DECODED = 2;
+
+	// Shared by every list, so coming back to the tab costs nothing
+	private static LruCache<Long, Bitmap> sCache;
+
+	private final Context context;
+	private final HandlerThread thread;
+	private final Handler worker;
+	private final Handler main;
+	// Only used on the worker thread
+	private final BitmapFactory.Options options = new BitmapFactory.Options();
+
+	public ThumbnailLoader(Context context) {
+		this.context = context.getApplicationContext();
+		thread = new HandlerThread("ThumbnailLoader",
+				Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		worker = new Handler(thread.getLooper(), this);
+		main = new Handler(Looper.getMainLooper(), this);
+		// Thumbnails are opaque, so half the memory of the default
+		options.inPreferredConfig = Bitmap.Config.RGB_565;
+	}
+
+	// A sixteenth of the heap: a few screens' worth of rows
+	private static synchronized LruCache<Long, Bitmap> cache() {
+		if (sCache == null) {
+			int maxBytes = (int) (Runtime.getRuntime().maxMemory() / 16);
+			sCache = new LruCache<Long, Bitmap>(maxBytes) {
+				@Override
+				protected int sizeOf(Long key, Bitmap value) {
+					return value.getRowBytes() * value.getHeight();
+				}
+			};
+		}
+		return sCache;
+	}
+
+	/**
+	 * Show trip key's thumbnail in view, now or once it is decoded. The key
+	 * is kept as the view's tag, so pass the same boxed id on every bind.
+	 * Call on the UI thread.
+	 */
+	public void load(Long key, ImageView view) {
+		view.setTag(key);
+		// A recycled row only needs its latest trip
+		worker.removeMessages(MSG_DECODE, view);
+
+		Bitmap bitmap = cache().get(key);
+		show(view, bitmap);
+		if (bitmap == null) {
+			long tripid = key.longValue();
+			worker.obtainMessage(MSG_DECODE, (int) (tripid >>> 32),
+					(int) tripid, view).sendToTarget();
+		}
+	}
+
+	/**
+	 * Leave view blank and forget any pending load for it.
+	 */
+	public void clear(ImageView view) {
+		view.setTag(null);
+		worker.removeMessages(MSG_DECODE, view);
+		show(view, null);
+	}
+
+	private static void show(ImageView view, Bitmap bitmap) {
+		Drawable d = view.getDrawable();
+		if (!(d instanceof ThumbnailDrawable)) {
+			d = new ThumbnailDrawable();
+			view.setImageDrawable(d);
+		}
+		((ThumbnailDrawable) d).setBitmap(bitmap);
+	}
+
+	/**
+	 * Stop the background thread. The memory cache is kept.
+	 */
+	public void quit() {
+		worker.removeCallbacksAndMessages(null);
+		main.removeCallbacksAndMessages(null);
+		thread.quit();
+	}
+
+	@Override
+	public boolean handleMessage(Message msg) {
+		long tripid = ((long) msg.arg1 << 32) | (msg.arg2 & 0xffffffffL);
+		switch (msg.what) {
+		case MSG_DECODE:
+			if (decode(tripid)) {
+				main.obtainMessage(MSG_DECODED, msg.arg1, msg.arg2, msg.obj)
+						.sendToTarget();
+			}
+			return true;
+		case MSG_DECODED:
+			ImageView view = (ImageView) msg.obj;
+			Object tag = view.getTag();
+			if (tag instanceof Long && ((Long) tag).longValue() == tripid) {
+				Bitmap bitmap = cache().get((Long) tag);
+				if (bitmap != null) {
+					show(view, bitmap);
+				}
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	// On the worker thread: read the file into the memory cache
+	private boolean decode(long tripid) {
+		Long key = Long.valueOf(tripid);
+		if (cache().get(key) != null) {
+			return true;
+		}
+		File file = TripThumbnails.file(context, tripid);
+		Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+		if (bitmap == null) {
+			// Not drawn yet, or cleared with the cache; the recorder's next
+			// backfill puts it back
+			return false;
+		}
+		// Most recently read files are the last to be trimmed
+		file.setLastModified(System.currentTimeMillis());
+		cache().put(key, bitmap);
+		return true;
+	}
+
+	// Draws its bitmap scaled to the view; thumbnails are square, as are
+	// their views
+	private static class ThumbnailDrawable extends Drawable {
+		private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+		private Bitmap bitmap;
+
+		void setBitmap(Bitmap bitmap) {
+			if (this.bitmap != bitmap) {
+				this.bitmap = bitmap;
+				invalidateSelf();
+			}
+		}
+
+		@Override
+		public void draw(Canvas canvas) {
+			if (bitmap != null) {
+				canvas.drawBitmap(bitmap, null, getBounds(), paint);
+			}
+		}
+
+		@Override
+		public void setAlpha(int alpha) {
+			paint.setAlpha(alpha);
+			invalidateSelf();
+		}
+
+		@Override
+		public void setColorFilter(ColorFilter cf) {
+			paint.setColorFilter(cf);
+			invalidateSelf();
+		}
+
+		@Override
+		public int getOpacity() {
+			return bitmap != null ? PixelFormat.OPAQUE
+					: PixelFormat.TRANSPARENT;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.ArrayList;
+
+import android.database.Cursor;
+
+/**
+ * A recorded track stored column by column in primitive arrays, so a long
+ * ride costs six arrays instead of one CyclePoint object per point. Read it
+ * by index; hot loops may use the backing arrays directly, valid up to
+ * size().
+ */
+class TrackBuffer {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private int size = 0;
+	private int[] lat;
+	private int[] lgt;
+	private double[] time;
+	private float[] acc;
+	private double[] alt;
+	private float[] speed;
+
+	public TrackBuffer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TrackBuffer(int capacity) {
+		capacity = Math.max(1, capacity);
+		lat = new int[capacity];
+		lgt = new int[capacity];
+		time = new double[capacity];
+		acc = new float[capacity];
+		alt = new double[capacity];
+		speed = new float[capacity];
+	}
+
+	/**
+	 * Read every row of a coords cursor, positioned on its first row.
+	 */
+	public static TrackBuffer fromCursor(Cursor points) {
+		TrackBuffer track = new TrackBuffer(points.getCount());
+		int COL_LAT = points.getColumnIndex(DbAdapter.K_POINT_LAT);
+		int COL_LGT = points.getColumnIndex(DbAdapter.K_POINT_LGT);
+		int COL_TIME = points.getColumnIndex(DbAdapter.K_POINT_TIME);
+		int COL_ACC = points.getColumnIndex(DbAdapter.K_POINT_ACC);
+		int COL_ALT = points.getColumnIndex(DbAdapter.K_POINT_ALT);
+		int COL_SPEED = points.getColumnIndex(DbAdapter.K_POINT_SPEED);
+
+		while (!points.isAfterLast()) {
+			track.add(points.getInt(COL_LAT), points.getInt(COL_LGT),
+					points.getDouble(COL_TIME), points.getFloat(COL_ACC),
+					points.getDouble(COL_ALT), points.getFloat(COL_SPEED));
+			points.moveToNext();
+		}
+		return track;
+	}
+
+	public void add(int lat, int lgt, double time, float acc, double alt,
+			float speed) {
+		ensureCapacity(size + 1);
+		this.lat[size] = lat;
+		this.lgt[size] = lgt;
+		this.time[size] = time;
+		this.acc[size] = acc;
+		this.alt[size] = alt;
+		this.speed[size] = speed;
+		size++;
+	}
+
+	public void add(CyclePoint pt) {
+		add(pt.latitude, pt.longitude, pt.time, pt.accuracy, pt.altitude,
+				pt.speed);
+	}
+
+	public void ensureCapacity(int capacity) {
+		if (capacity <= lat.length) {
+			return;
+		}
+		int grown = Math.max(capacity, lat.length + (lat.length >> 1));
+		int[] newLat = new int[grown];
+		int[] newLgt = new int[grown];
+		double[] newTime = new double[grown];
+		float[] newAcc = new float[grown];
+		double[] newAlt = new double[grown];
+		float[] newSpeed = new float[grown];
+		System.arraycopy(lat, 0, newLat, 0, size);
+		System.arraycopy(lgt, 0, newLgt, 0, size);
+		System.arraycopy(time, 0, newTime, 0, size);
+		System.arraycopy(acc, 0, newAcc, 0, size);
+		System.arraycopy(alt, 0, newAlt, 0, size);
+		System.arraycopy(speed, 0, newSpeed, 0, size);
+		lat = newLat;
+		lgt = newLgt;
+		time = newTime;
+		acc = newAcc;
+		alt = newAlt;
+		speed = newSpeed;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public int getLat(int i) {
+		checkIndex(i);
+		return lat[i];
+	}
+
+	public int getLgt(int i) {
+		checkIndex(i);
+		return lgt[i];
+	}
+
+	public double getTime(int i) {
+		checkIndex(i);
+		return time[i];
+	}
+
+	public float getAcc(int i) {
+		checkIndex(i);
+		return acc[i];
+	}
+
+	public double getAlt(int i) {
+		checkIndex(i);
+		return alt[i];
+	}
+
+	public float getSpeed(int i) {
+		checkIndex(i);
+		return speed[i];
+	}
+
+	// Backing arrays; only the first size() entries are meaningful, and
+	// they are replaced when the buffer grows
+	int[] lats() {
+		return lat;
+	}
+
+	int[] lgts() {
+		return lgt;
+	}
+
+	double[] times() {
+		return time;
+	}
+
+	/**
+	 * Copy point i out as a CyclePoint, for code not yet using the buffer.
+	 */
+	public CyclePoint getPoint(int i) {
+		checkIndex(i);
+		return new CyclePoint(lat[i], lgt[i], time[i], acc[i], alt[i],
+				speed[i]);
+	}
+
+	public ArrayList<CyclePoint> toPoints() {
+		ArrayList<CyclePoint> points = new ArrayList<CyclePoint>(size);
+		for (int i = 0; i < size; i++) {
+			points.add(getPoint(i));
+		}
+		return points;
+	}
+
+	private void checkIndex(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index " + i + ", size "
+					+ size);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Packs a run of track points into a compact byte array for the
+ * coord_chunks table. After a version byte, each point is written as the
+ * difference from the one before (the first from zero), zigzag-encoded so
+ * small negative steps stay small, then as a base-128 varint. A point at
+ * one fix per second usually takes 8 to 10 bytes.
+ *
+ * Latitude and longitude are the stored micro-degree ints and time is
+ * whole milliseconds, all exact. Accuracy and altitude are kept to 0.1 m
+ * and speed to 0.01 m/s.
+ */
+final class TrackCodec {
+	static final int VERSION = 1;
+	static final int POINTS_PER_CHUNK = 256;
+
+	private TrackCodec() {
+	}
+
+	/**
+	 * Encode points [from, to) of track.
+	 */
+	public static byte[] encode(TrackBuffer track, int from, int to) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				(to - from) * 10 + 1);
+		out.write(VERSION);
+
+		int lat = 0, lgt = 0, acc = 0, alt = 0, speed = 0;
+		long time = 0;
+		for (int i = from; i < to; i++) {
+			int qLat = track.getLat(i);
+			int qLgt = track.getLgt(i);
+			long qTime = Math.round(track.getTime(i));
+			int qAcc = Math.round(track.getAcc(i) * 10);
+			int qAlt = (int) Math.round(track.getAlt(i) * 10);
+			int qSpeed = Math.round(track.getSpeed(i) * 100);
+
+			writeVarint(out, zigzag(qLat - lat));
+			writeVarint(out, zigzag(qLgt - lgt));
+			writeVarint(out, zigzag(qTime - time));
+			writeVarint(out, zigzag(qAcc - acc));
+			writeVarint(out, zigzag(qAlt - alt));
+			writeVarint(out, zigzag(qSpeed - speed));
+
+			lat = qLat;
+			lgt = qLgt;
+			time = qTime;
+			acc = qAcc;
+			alt = qAlt;
+			speed = qSpeed;
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Append npoints decoded from data to into.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if data isn't a chunk this version can read
+	 */
+	public static void decode(byte[] data, int npoints, TrackBuffer into) {
+		if (data == null || data.length == 0 || data[0] != VERSION) {
+			throw new IllegalArgumentException("Unknown chunk format");
+		}
+		into.ensureCapacity(into.size() + npoints);
+
+		int[] pos = { 1 };
+		int lat = 0, lgt = 0, acc = 0, alt = 0, speed = 0;
+		long time = 0;
+		for (int i = 0; i < npoints; i++) {
+			lat += (int) unzigzag(readVarint(data, pos));
+			lgt += (int) unzigzag(readVarint(data, pos));
+			time += unzigzag(readVarint(data, pos));
+			acc += (int) unzigzag(readVarint(data, pos));
+			alt += (int) unzigzag(readVarint(data, pos));
+			speed += (int) unzigzag(readVarint(data, pos));
+			into.add(lat, lgt, time, acc / 10.0f, alt / 10.0, speed / 100.0f);
+		}
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	static void writeVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	// pos[0] is the read position, advanced past the varint
+	static long readVarint(byte[] data, int[] pos) {
+		long v = 0;
+		int shift = 0;
+		while (true) {
+			if (pos[0] >= data.length || shift > 63) {
+				throw new IllegalArgumentException("Truncated chunk");
+			}
+			byte b = data[pos[0]++];
+			v |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+			shift += 7;
+		}
+	}
+}
@@ -0,0 +1,233 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.Arrays;
+
+import android.database.Cursor;
+
+/**
+ * A trip's track at several levels of detail, for drawing at any zoom
+ * without handing the map more vertices than it can show. Level k is the
+ * track simplified with Douglas-Peucker at BASE_TOLERANCE * 2^k meters,
+ * each level built from the one before, so going up a level roughly
+ * matches zooming out one step. Levels stop once a track is down to its
+ * two end points.
+ *
+ * Levels are kept in the trip_levels table as encoded polylines (see
+ * PolylineCodec). They are built when a trip is finished, as its preview is
+ * drawn, or else the first time it is shown, and never change afterwards,
+ * since a finished trip's points don't.
+ */
+final class TrackLevels {
+	static final float BASE_TOLERANCE = 1.0f; // meters
+	static final int MAX_LEVELS = 16;
+
+	// Meters per (256-unit tile) pixel at zoom 0 on the equator
+	static final double METERS_PER_PIXEL_Z0 = 156543.03392;
+
+	private TrackLevels() {
+	}
+
+	public static float tolerance(int level) {
+		return BASE_TOLERANCE * (1 << level);
+	}
+
+	/**
+	 * The level to draw at a camera zoom: the coarsest whose tolerance is
+	 * still under a pixel at the trip's latitude.
+	 */
+	public static int levelFor(float zoom, double latitude, int levels) {
+		double metersPerPixel = METERS_PER_PIXEL_Z0
+				* Math.cos(Math.toRadians(latitude)) / Math.pow(2, zoom);
+		return levelForResolution(metersPerPixel, levels);
+	}
+
+	/**
+	 * The coarsest level whose tolerance is under metersPerPixel.
+	 */
+	public static int levelForResolution(double metersPerPixel, int levels) {
+		int level = (int) Math.floor(Math.log(metersPerPixel
+				/ BASE_TOLERANCE)
+				/ Math.log(2));
+		return Math.max(0, Math.min(levels - 1, level));
+	}
+
+	/**
+	 * The stored levels for a trip, finest first, or null if they haven't
+	 * been built.
+	 */
+	public static String[] load(DbAdapter db, long tripid) {
+		Cursor c = db.fetchTripLevels(tripid);
+		try {
+			if (c == null || c.getCount() == 0) {
+				return null;
+			}
+			int colData = c.getColumnIndex(DbAdapter.K_LEVEL_DATA);
+			String[] levels = new String[c.getCount()];
+			for (int i = 0; c.moveToPosition(i); i++) {
+				levels[i] = c.getString(colData);
+			}
+			return levels;
+		} finally {
+			if (c != null) {
+				c.close();
+			}
+		}
+	}
+
+	/**
+	 * The stored levels for a finished trip, building and storing them from
+	 * its points first if need be.
+	 */
+	public static String[] loadOrBuild(DbAdapter db, long tripid) {
+		String[] levels = load(db, tripid);
+		if (levels == null) {
+			levels = buildAndStore(db, tripid, TrackReader.readAll(db, tripid));
+		}
+		return levels;
+	}
+
+	/**
+	 * Build the levels for a trip's whole track and store them, replacing
+	 * any already there. Returns the encoded levels, finest first.
+	 */
+	public static String[] buildAndStore(DbAdapter db, long tripid,
+			TrackBuffer track) {
+		String[] levels = build(track);
+		db.beginTransaction();
+		try {
+			db.deleteTripLevels(tripid);
+			for (int k = 0; k < levels.length; k++) {
+				db.addTripLevel(tripid, k, tolerance(k), levels[k]);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return levels;
+	}
+
+	public static String[] build(TrackBuffer track) {
+		int n = track.size();
+		int[] lat = new int[n];
+		int[] lgt = new int[n];
+		System.arraycopy(track.lats(), 0, lat, 0, n);
+		System.arraycopy(track.lgts(), 0, lgt, 0, n);
+
+		String[] levels = new String[MAX_LEVELS];
+		int count = 0;
+		boolean[] keep = new boolean[n];
+		while (count < MAX_LEVELS) {
+			n = simplify(lat, lgt, n, tolerance(count), keep);
+			levels[count++] = PolylineCodec.encode(lat, lgt, n);
+			if (n <= 2) {
+				break;
+			}
+		}
+
+		String[] result = new String[count];
+		System.arraycopy(levels, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Douglas-Peucker over the first n vertices of lat/lgt, in place: the
+	 * kept vertices are moved to the front and their count returned. Uses
+	 * an explicit stack of spans, so a long trip can't overflow the call
+	 * stack. keep must hold at least n entries.
+	 */
+	static int simplify(int[] lat, int[] lgt, int n, float tolerance,
+			boolean[] keep) {
+		if (n <= 2) {
+			return n;
+		}
+		Arrays.fill(keep, 0, n, false);
+		keep[0] = keep[n - 1] = true;
+
+		// Project onto a local plane once: micro-degrees of latitude, and
+		// of longitude scaled by the cosine of the trip's latitude
+		double cosLat = Math.cos(lat[0] * TrackSimplifier.MICRODEG_TO_RAD);
+		double limit = tolerance
+				/ (TrackSimplifier.MICRODEG_TO_RAD * TrackSimplifier.EARTH_RADIUS);
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = n - 1;
+		while (top > 0) {
+			int last = stack[--top];
+			int first = stack[--top];
+			double ex = (lgt[last] - lgt[first]) * cosLat;
+			double ey = lat[last] - lat[first];
+
+			int farthest = -1;
+			double max = limit;
+			for (int i = first + 1; i < last; i++) {
+				double px = (lgt[i] - lgt[first]) * cosLat;
+				double py = lat[i] - lat[first];
+				double d = TrackSimplifier.distanceToSegment(px, py, ex, ey);
+				if (d > max) {
+					max = d;
+					farthest = i;
+				}
+			}
+
+			if (farthest >= 0) {
+				keep[farthest] = true;
+				if (top + 4 > stack.length) {
+					int[] grown = new int[stack.length * 2];
+					System.arraycopy(stack, 0, grown, 0, top);
+					stack = grown;
+				}
+				if (farthest - first > 1) {
+					stack[top++] = first;
+					stack[top++] = farthest;
+				}
+				if (last - farthest > 1) {
+					stack[top++] = farthest;
+					stack[top++] = last;
+				}
+			}
+		}
+
+		int kept = 0;
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				lat[kept] = lat[i];
+				lgt[kept] = lgt[i];
+				kept++;
+			}
+		}
+		return kept;
+	}
+}
@@ -0,0 +1,196 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.database.Cursor;
+
+/**
+ * Streams a stored trip's points in time order, one chunk in memory at a
+ * time, whether the trip is packed into coord_chunks or still in coords.
+ * 
+ * <pre>
+ * TrackReader reader = new TrackReader(db, tripid);
+ * while (reader.next()) {
+ * 	use(reader.lat(), reader.lgt(), reader.time());
+ * }
+ * reader.close();
+ * </pre>
+ */
+class TrackReader {
+	private Cursor chunks;
+	private Cursor coords;
+	private final TrackBuffer chunk;
+	private int index = -1;
+	private boolean started = false;
+
+	private int COL_NPOINTS, COL_DATA;
+	private int COL_LAT, COL_LGT, COL_TIME, COL_ACC, COL_ALT, COL_SPEED;
+
+	public TrackReader(DbAdapter db, long tripid) {
+		chunk = new TrackBuffer(TrackCodec.POINTS_PER_CHUNK);
+		if (!openChunks(db, tripid)) {
+			coords = db.fetchAllCoordsForTrip(tripid);
+			if (coords == null || coords.getCount() == 0) {
+				if (coords != null) {
+					coords.close();
+					coords = null;
+				}
+				// The trip may have been packed between the two queries
+				openChunks(db, tripid);
+			} else {
+				COL_LAT = coords.getColumnIndex(DbAdapter.K_POINT_LAT);
+				COL_LGT = coords.getColumnIndex(DbAdapter.K_POINT_LGT);
+				COL_TIME = coords.getColumnIndex(DbAdapter.K_POINT_TIME);
+				COL_ACC = coords.getColumnIndex(DbAdapter.K_POINT_ACC);
+				COL_ALT = coords.getColumnIndex(DbAdapter.K_POINT_ALT);
+				COL_SPEED = coords.getColumnIndex(DbAdapter.K_POINT_SPEED);
+			}
+		}
+	}
+
+	private boolean openChunks(DbAdapter db, long tripid) {
+		Cursor c = db.fetchChunksForTrip(tripid);
+		if (c == null || c.getCount() == 0) {
+			if (c != null) {
+				c.close();
+			}
+			return false;
+		}
+		chunks = c;
+		COL_NPOINTS = c.getColumnIndex(DbAdapter.K_CHUNK_NPOINTS);
+		COL_DATA = c.getColumnIndex(DbAdapter.K_CHUNK_DATA);
+		return true;
+	}
+
+	/**
+	 * Read the whole trip into one buffer, sized up front.
+	 */
+	public static TrackBuffer readAll(DbAdapter db, long tripid) {
+		TrackReader reader = new TrackReader(db, tripid);
+		try {
+			if (reader.coords != null) {
+				return TrackBuffer.fromCursor(reader.coords);
+			}
+			if (reader.chunks == null) {
+				return new TrackBuffer(0);
+			}
+
+			Cursor c = reader.chunks;
+			int total = 0;
+			while (!c.isAfterLast()) {
+				total += c.getInt(reader.COL_NPOINTS);
+				c.moveToNext();
+			}
+			TrackBuffer track = new TrackBuffer(total);
+			c.moveToFirst();
+			while (!c.isAfterLast()) {
+				TrackCodec.decode(c.getBlob(reader.COL_DATA),
+						c.getInt(reader.COL_NPOINTS), track);
+				c.moveToNext();
+			}
+			return track;
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Move to the next point.
+	 * 
+	 * @return false once there are no more
+	 */
+	public boolean next() {
+		if (coords != null) {
+			if (started) {
+				coords.moveToNext();
+			}
+			started = true;
+			return !coords.isAfterLast();
+		}
+		if (chunks == null) {
+			return false;
+		}
+
+		index++;
+		while (index >= chunk.size()) {
+			if (started) {
+				chunks.moveToNext();
+			}
+			started = true;
+			if (chunks.isAfterLast()) {
+				return false;
+			}
+			chunk.clear();
+			TrackCodec.decode(chunks.getBlob(COL_DATA),
+					chunks.getInt(COL_NPOINTS), chunk);
+			index = 0;
+		}
+		return true;
+	}
+
+	public int lat() {
+		return coords != null ? coords.getInt(COL_LAT) : chunk.getLat(index);
+	}
+
+	public int lgt() {
+		return coords != null ? coords.getInt(COL_LGT) : chunk.getLgt(index);
+	}
+
+	public double time() {
+		return coords != null ? coords.getDouble(COL_TIME) : chunk
+				.getTime(index);
+	}
+
+	public float acc() {
+		return coords != null ? coords.getFloat(COL_ACC) : chunk.getAcc(index);
+	}
+
+	public double alt() {
+		return coords != null ? coords.getDouble(COL_ALT) : chunk.getAlt(index);
+	}
+
+	public float speed() {
+		return coords != null ? coords.getFloat(COL_SPEED) : chunk
+				.getSpeed(index);
+	}
+
+	public void close() {
+		if (chunks != null) {
+			chunks.close();
+			chunks = null;
+		}
+		if (coords != null) {
+			coords.close();
+			coords = null;
+		}
+	}
+}
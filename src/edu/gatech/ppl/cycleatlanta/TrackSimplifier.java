@@ -0,0 +1,165 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.ArrayList;
+
+/**
+ * Streaming line simplification for the recorder (an "opening window"
+ * variant of Douglas-Peucker). Each offered point either extends the current
+ * straight run or closes it; a run is kept as long as every point in it lies
+ * within the tolerance of the line from the last kept point to the newest
+ * one. The window is bounded, so memory use doesn't grow with the trip.
+ *
+ * Output lags input by one point: offer() returns the point that ended the
+ * previous run, if any, and finish() returns the final pending point.
+ */
+class TrackSimplifier {
+	static final double EARTH_RADIUS = 6371009.0; // meters
+	static final double MICRODEG_TO_RAD = Math.PI / 180.0 / 1E6;
+
+	public static final float DEFAULT_TOLERANCE = 4.0f; // meters
+	static final int MAX_WINDOW = 64;
+	static final double MAX_GAP = 60000; // ms; keep a point at least this often
+
+	private final float tolerance;
+	private CyclePoint anchor;
+	private final ArrayList<CyclePoint> window = new ArrayList<CyclePoint>(
+			MAX_WINDOW);
+	private int seen, kept;
+
+	public TrackSimplifier() {
+		this(DEFAULT_TOLERANCE);
+	}
+
+	public TrackSimplifier(float tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	public void reset() {
+		anchor = null;
+		window.clear();
+		seen = kept = 0;
+	}
+
+	/**
+	 * Offer the next fix. Returns a point that should be persisted now, or
+	 * null if nothing is ready yet.
+	 */
+	public CyclePoint offer(CyclePoint pt) {
+		seen++;
+
+		if (anchor == null) {
+			anchor = pt;
+			kept++;
+			return pt;
+		}
+
+		if (!window.isEmpty() && !stillStraight(pt)) {
+			// pt breaks the run: keep the previous point and start over there
+			CyclePoint emit = window.get(window.size() - 1);
+			window.clear();
+			anchor = emit;
+			window.add(pt);
+			kept++;
+			return emit;
+		}
+
+		window.add(pt);
+		return null;
+	}
+
+	/**
+	 * End of the stream (pause, finish): returns the last pending point, if
+	 * any, so the track ends where the rider stopped.
+	 */
+	public CyclePoint finish() {
+		if (window.isEmpty()) {
+			return null;
+		}
+		CyclePoint emit = window.get(window.size() - 1);
+		window.clear();
+		anchor = emit;
+		kept++;
+		return emit;
+	}
+
+	public int getSeen() {
+		return seen;
+	}
+
+	public int getKept() {
+		return kept;
+	}
+
+	// Fraction of offered points that were dropped
+	public float getReductionRatio() {
+		return (seen == 0) ? 0.0f : 1.0f - (float) kept / seen;
+	}
+
+	// Can the straight run from anchor be stretched to pt?
+	private boolean stillStraight(CyclePoint pt) {
+		if (window.size() >= MAX_WINDOW || pt.time - anchor.time > MAX_GAP) {
+			return false;
+		}
+
+		double cosLat = Math.cos(anchor.latitude * MICRODEG_TO_RAD);
+		double ex = (pt.longitude - anchor.longitude) * cosLat;
+		double ey = pt.latitude - anchor.latitude;
+
+		for (int i = 0; i < window.size(); i++) {
+			CyclePoint p = window.get(i);
+			double px = (p.longitude - anchor.longitude) * cosLat;
+			double py = p.latitude - anchor.latitude;
+			if (distanceToSegment(px, py, ex, ey) * MICRODEG_TO_RAD
+					* EARTH_RADIUS > tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Distance from (px,py) to the segment (0,0)-(ex,ey), in input units
+	static double distanceToSegment(double px, double py, double ex,
+			double ey) {
+		double len2 = ex * ex + ey * ey;
+		double t = (len2 == 0) ? 0 : (px * ex + py * ey) / len2;
+		if (t < 0) {
+			t = 0;
+		} else if (t > 1) {
+			t = 1;
+		}
+		double dx = px - t * ex;
+		double dy = py - t * ey;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+}
@@ -0,0 +1,130 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Moves finished trips from one coords row per point into TrackCodec
+ * chunks. Points are recorded into coords, where appending is cheap; once
+ * a trip is done it is packed, which makes it several times smaller and
+ * much quicker to load. Run off the UI thread.
+ */
+class TrackStore {
+	private static final String TAG = "TrackStore";
+
+	private TrackStore() {
+	}
+
+	/**
+	 * Pack one trip's coords rows into chunks, in a single transaction.
+	 * 
+	 * @return the number of points packed
+	 */
+	public static int pack(DbAdapter db, long tripid) {
+		int packed = 0;
+		db.beginTransaction();
+		try {
+			Cursor points = db.fetchAllCoordsForTrip(tripid);
+			if (points == null) {
+				return 0;
+			}
+			TrackBuffer track = TrackBuffer.fromCursor(points);
+			points.close();
+
+			int seq = db.nextChunkSeq(tripid);
+			for (int from = 0; from < track.size(); from += TrackCodec.POINTS_PER_CHUNK) {
+				int to = Math.min(track.size(), from
+						+ TrackCodec.POINTS_PER_CHUNK);
+				int lathigh = Integer.MIN_VALUE, latlow = Integer.MAX_VALUE;
+				int lgthigh = Integer.MIN_VALUE, lgtlow = Integer.MAX_VALUE;
+				for (int i = from; i < to; i++) {
+					lathigh = Math.max(lathigh, track.getLat(i));
+					latlow = Math.min(latlow, track.getLat(i));
+					lgthigh = Math.max(lgthigh, track.getLgt(i));
+					lgtlow = Math.min(lgtlow, track.getLgt(i));
+				}
+				if (db.addChunk(tripid, seq++, to - from, track.getTime(from),
+						track.getTime(to - 1), lathigh, latlow, lgthigh,
+						lgtlow, TrackCodec.encode(track, from, to)) < 0) {
+					return 0;
+				}
+			}
+			db.deleteCoordRowsForTrip(tripid);
+			db.setTransactionSuccessful();
+			packed = track.size();
+		} finally {
+			db.endTransaction();
+		}
+		return packed;
+	}
+
+	public static int packTrip(Context ctx, long tripid) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			return pack(db, tripid);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Pack every finished trip still stored a row at a time: trips from
+	 * before chunked storage, and any whose packing was interrupted.
+	 */
+	public static void packAll(Context ctx) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			Cursor trips = db.fetchTripsToPack();
+			if (trips == null) {
+				return;
+			}
+			long[] tripids = new long[trips.getCount()];
+			for (int i = 0; !trips.isAfterLast(); i++) {
+				tripids[i] = trips.getLong(0);
+				trips.moveToNext();
+			}
+			trips.close();
+
+			for (long tripid : tripids) {
+				int n = pack(db, tripid);
+				Log.i(TAG, "Packed trip " + tripid + ": " + n + " points");
+			}
+		} finally {
+			db.close();
+		}
+	}
+}
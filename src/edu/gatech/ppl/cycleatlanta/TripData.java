@@ -30,11 +30,13 @@
 
 package edu.gatech.ppl.cycleatlanta;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.location.Location;
+import android.util.Log;
 
 public class TripData {
 	long tripid;
@@ -47,15 +49,26 @@ public class TripData {
 	String purp, fancystart, info;
 	// private ItemizedOverlayTrack gpspoints;
 	private ArrayList<CyclePoint> gpspoints = new ArrayList<CyclePoint>();
+	private TrackBuffer track;
 	CyclePoint startpoint, endpoint;
-	double totalPauseTime = 0;
-	double pauseStartedAt = 0;
+	// Pause state has a lock of its own that database writes never hold,
+	// so the UI reading the paused time never waits on a flush
+	private final Object pauseLock = new Object();
+	volatile double totalPauseTime = 0;
+	volatile double pauseStartedAt = 0;
 
 	DbAdapter mDb;
+	private final PointWriteBuffer pendingPoints = new PointWriteBuffer(
+			PointWriteBuffer.DEFAULT_POLICY);
+	final TripSummary summary = new TripSummary();
+	private TripJournal journal;
 
 	public static int STATUS_INCOMPLETE = 0;
 	public static int STATUS_COMPLETE = 1;
 	public static int STATUS_SENT = 2;
+	// Rebuilt from the journal after a crash; still needs a purpose, so not
+	// uploaded until the rider goes through the purpose and detail screens
+	public static int STATUS_RECOVERED = 3;
 
 	public static TripData createTrip(Context c) {
 		TripData t = new TripData(c.getApplicationContext(), 0);
@@ -113,76 +126,93 @@ public class TripData {
 				.getColumnIndex("fancystart"));
 		info = tripdetails.getString(tripdetails.getColumnIndex("fancyinfo"));
 
+		// Stored once the trip is summarized; count only before that
+		int numpointsCol = tripdetails.getColumnIndex("numpoints");
+		boolean counted = !tripdetails.isNull(numpointsCol);
+		if (counted) {
+			numpoints = tripdetails.getInt(numpointsCol);
+		}
+
 		tripdetails.close();
 
-		Cursor points = mDb.fetchAllCoordsForTrip(tripid);
-		if (points != null) {
-			numpoints = points.getCount();
-			points.close();
+		if (!counted) {
+			numpoints = mDb.countPointsForTrip(tripid);
 		}
 
 		mDb.close();
 	}
 
+	// Marked as the trip being recorded as its row is created, so the
+	// saved-trips cleanup never takes it for a crash's leftover
 	void createTripInDatabase(Context c) {
-		mDb.open();
-		tripid = mDb.createTrip();
-		mDb.close();
+		tripid = TripJournal.createTrip(c);
 	}
 
-	void dropTrip() {
+	/**
+	 * Journal every point added from now on, so queued points survive the
+	 * process being killed. Pass null to stop journaling.
+	 */
+	synchronized void setJournal(TripJournal journal) {
+		this.journal = journal;
+	}
+
+	synchronized TripJournal getJournal() {
+		return journal;
+	}
+
+	synchronized void dropTrip() {
+		if (journal != null) {
+			journal.delete();
+			journal = null;
+		}
 		mDb.open();
 		mDb.deleteAllCoordsForTrip(tripid);
 		mDb.deleteTrip(tripid);
 		mDb.close();
 	}
 
-	public ArrayList<CyclePoint> getPoints() {
+	/**
+	 * The stored track, one primitive array per column. Loaded once and
+	 * kept; also sets numpoints, startpoint and endpoint.
+	 */
+	public TrackBuffer getTrack() {
 		// If already built, don't build again!
-		if (gpspoints != null && gpspoints.size() > 0) {
-			return gpspoints;
+		if (track != null && track.size() > 0) {
+			return track;
 		}
 
-		// Otherwise, we need to query DB and build points from scratch.
-		gpspoints = new ArrayList<CyclePoint>();
+		// Otherwise, we need to query DB and build the track from scratch.
+		track = new TrackBuffer(0);
 
 		try {
 			mDb.openReadOnly();
 
-			Cursor points = mDb.fetchAllCoordsForTrip(tripid);
-			int COL_LAT = points.getColumnIndex("lat");
-			int COL_LGT = points.getColumnIndex("lgt");
-			int COL_TIME = points.getColumnIndex("time");
-			int COL_ACC = points.getColumnIndex(DbAdapter.K_POINT_ACC);
-
-			numpoints = points.getCount();
-
-			points.moveToLast();
-			this.endpoint = new CyclePoint(points.getInt(COL_LAT),
-					points.getInt(COL_LGT), points.getDouble(COL_TIME));
-
-			points.moveToFirst();
-			this.startpoint = new CyclePoint(points.getInt(COL_LAT),
-					points.getInt(COL_LGT), points.getDouble(COL_TIME));
-
-			while (!points.isAfterLast()) {
-				int lat = points.getInt(COL_LAT);
-				int lgt = points.getInt(COL_LGT);
-				double time = points.getDouble(COL_TIME);
-				float acc = (float) points.getDouble(COL_ACC);
-				CyclePoint pt = new CyclePoint(lat, lgt, time, acc);
-				gpspoints.add(pt);
-				// addPointToSavedMap(lat, lgt, time, acc);
-				points.moveToNext();
-			}
-			points.close();
+			track = TrackReader.readAll(mDb, tripid);
 			mDb.close();
 
+			numpoints = track.size();
+			if (numpoints > 0) {
+				this.startpoint = new CyclePoint(track.getLat(0),
+						track.getLgt(0), track.getTime(0));
+				this.endpoint = new CyclePoint(track.getLat(numpoints - 1),
+						track.getLgt(numpoints - 1),
+						track.getTime(numpoints - 1));
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		// gpspoints.repopulate();
 
+		return track;
+	}
+
+	// One object per point: prefer getTrack() for anything long
+	public ArrayList<CyclePoint> getPoints() {
+		// If already built, don't build again!
+		if (gpspoints != null && gpspoints.size() > 0) {
+			return gpspoints;
+		}
+
+		gpspoints = getTrack().toPoints();
 		return gpspoints;
 	}
 
@@ -195,39 +225,163 @@ public class TripData {
 	// }
 
 	boolean addPointNow(Location loc, double currentTime, float dst) {
+		return addPoint(pointFromLocation(loc, currentTime), dst);
+	}
+
+	static CyclePoint pointFromLocation(Location loc, double currentTime) {
 		int lat = (int) (loc.getLatitude() * 1E6);
 		int lgt = (int) (loc.getLongitude() * 1E6);
 
+		return new CyclePoint(lat, lgt, currentTime, loc.getAccuracy(),
+				loc.getAltitude(), loc.getSpeed());
+	}
+
+	synchronized boolean addPoint(CyclePoint pt, float dst) {
+		int lat = pt.latitude;
+		int lgt = pt.longitude;
+
 		// Skip duplicates
 		if (latestlat == lat && latestlgt == lgt)
 			return true;
 
-		float accuracy = loc.getAccuracy();
-		double altitude = loc.getAltitude();
-		float speed = loc.getSpeed();
+		summary.add(pt, dst);
 
-		CyclePoint pt = new CyclePoint(lat, lgt, currentTime, accuracy,
-				altitude, speed);
-
-		numpoints++;
-		endTime = currentTime - this.totalPauseTime;
-		distance = dst;
-
-		latlow = Math.min(latlow, lat);
-		lathigh = Math.max(lathigh, lat);
-		lgtlow = Math.min(lgtlow, lgt);
-		lgthigh = Math.max(lgthigh, lgt);
+		numpoints = summary.numpoints;
+		endTime = pt.time - this.totalPauseTime;
+		distance = summary.distance;
+		latlow = summary.latlow;
+		lathigh = summary.lathigh;
+		lgtlow = summary.lgtlow;
+		lgthigh = summary.lgthigh;
 
 		latestlat = lat;
 		latestlgt = lgt;
 
+		// Journal the point, then queue it; it reaches the database with
+		// the next batch.
+		if (journal != null) {
+			try {
+				journal.append(pt);
+			} catch (IOException e) {
+				Log.e("TripData", "Journal append failed", e);
+			}
+		}
+		double now = System.currentTimeMillis();
+		pendingPoints.add(pt, now);
+		if (pendingPoints.shouldFlush(now)) {
+			return flushPoints();
+		}
+		return true;
+	}
+
+	synchronized void addFix(double time, float speed) {
+		summary.addFix(time, speed);
+	}
+
+	void startPause(double time) {
+		synchronized (pauseLock) {
+			if (pauseStartedAt == 0) {
+				pauseStartedAt = time;
+			}
+		}
+		summary.breakRun();
+	}
+
+	// The summary picks up the new total at the next checkpoint
+	void endPause(double time) {
+		synchronized (pauseLock) {
+			if (pauseStartedAt > 0) {
+				totalPauseTime += time - pauseStartedAt;
+				pauseStartedAt = 0;
+			}
+		}
+		summary.breakRun();
+	}
+
+	// Time spent paused so far, including a pause still under way
+	double getPausedTime(double now) {
+		synchronized (pauseLock) {
+			if (pauseStartedAt > 0) {
+				return totalPauseTime + (now - pauseStartedAt);
+			}
+			return totalPauseTime;
+		}
+	}
+
+	public synchronized void setFlushPolicy(PointWriteBuffer.FlushPolicy policy) {
+		pendingPoints.setPolicy(policy);
+	}
+
+	/**
+	 * Flush queued points if the oldest one has waited long enough. Called
+	 * periodically by the recorder so a slow trickle of fixes still lands.
+	 */
+	synchronized boolean flushPointsIfDue(double now) {
+		if (pendingPoints.shouldFlush(now)) {
+			return flushPoints();
+		}
+		return true;
+	}
+
+	/**
+	 * Write all queued points and the new end time in a single transaction.
+	 * Points stay queued if the write fails. The rest of the trip row is
+	 * left to checkpoint().
+	 */
+	synchronized boolean flushPoints() {
+		if (pendingPoints.isEmpty()) {
+			return true;
+		}
+
+		boolean rtn;
 		mDb.open();
-		boolean rtn = mDb.addCoordToTrip(tripid, pt);
-		rtn = rtn
-				&& mDb.updateTrip(tripid, "", startTime, "", "", "", lathigh,
-						latlow, lgthigh, lgtlow, distance);
+		mDb.beginTransaction();
+		try {
+			rtn = mDb.addCoordsToTrip(tripid, pendingPoints.getPending());
+			if (rtn) {
+				mDb.setTransactionSuccessful();
+			}
+		} finally {
+			mDb.endTransaction();
+		}
 		mDb.close();
 
+		if (rtn) {
+			pendingPoints.clear();
+			if (journal != null) {
+				try {
+					journal.truncate();
+				} catch (IOException e) {
+					Log.e("TripData", "Journal truncate failed", e);
+				}
+			}
+		}
+		return rtn;
+	}
+
+	/**
+	 * Flush queued points and save the running summary (extent, distance,
+	 * end time) to the trips row, touching none of the user-entered fields.
+	 * Called on a timer and on recorder lifecycle events.
+	 */
+	synchronized boolean checkpoint() {
+		boolean rtn = flushPoints();
+		summary.setPausedTime(totalPauseTime);
+		if (!summary.isDirty()) {
+			return rtn;
+		}
+
+		mDb.open();
+		rtn = mDb.updateTripSummary(tripid, summary.lastTime,
+				summary.distance, summary.lathigh, summary.latlow,
+				summary.lgthigh, summary.lgtlow, summary.movingTime,
+				summary.maxSpeed, summary.pausedTime)
+				&& rtn;
+		mDb.close();
+
+		if (rtn) {
+			summary.markClean();
+		}
 		return rtn;
 	}
 
@@ -21,6 +21,12 @@ import android.widget.EditText;
 
 public class TripDetailActivity extends Activity {
 	long tripid;
+	// Describing a recovered trip rather than the one just recorded
+	boolean recovered;
+	// The recorder has the trip's last points on disk; until then a
+	// submit waits in pendingNotes
+	boolean saved;
+	String pendingNotes;
 	String purpose = "";
 	EditText notes;
 
@@ -31,9 +37,15 @@ public class TripDetailActivity extends Activity {
 
 		setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
 
-		finishRecording();
-		purpose = "";
 		Intent myIntent = getIntent(); // gets the previously created intent
+		tripid = myIntent.getLongExtra(
+				TripPurposeActivity.EXTRA_RECOVERED_TRIP, -1);
+		recovered = tripid >= 0;
+		saved = recovered;
+		if (!recovered) {
+			finishRecording();
+		}
+		purpose = "";
 		purpose = myIntent.getStringExtra("purpose");
 		notes = (EditText) findViewById(R.id.editTextTripDetail);
 		this.getWindow().setSoftInputMode(
@@ -41,8 +53,13 @@ public class TripDetailActivity extends Activity {
 	}
 
 	// submit btn is only activated after the service.finishedRecording() is
-	// completed.
+	// completed. Until the recorder has the trip on disk, a submit is held
+	// back and run once it has.
 	void submit(String notesToUpload) {
+		if (!saved) {
+			pendingNotes = notesToUpload;
+			return;
+		}
 		final Intent xi = new Intent(this, TripMapActivity.class);
 
 		TripData trip = TripData.fetchTrip(TripDetailActivity.this, tripid);
@@ -62,7 +79,9 @@ public class TripDetailActivity extends Activity {
 		// Save the trip details to the phone database. W00t!
 		trip.updateTrip(purpose, fancyStartTime, fancyEndInfo, notesToUpload);
 		trip.updateTripStatus(TripData.STATUS_COMPLETE);
-		resetService();
+		if (!recovered) {
+			resetService();
+		}
 
 		// Now create the MainInput Activity so BACK btn works properly
 		Intent i = new Intent(getApplicationContext(), TabsConfig.class);
@@ -88,6 +107,14 @@ public class TripDetailActivity extends Activity {
 				IRecordService rs = (IRecordService) service;
 				tripid = rs.finishRecording();
 				// TripDetailActivity.this.activateSubmitButton();
+				rs.runWhenSaved(new Runnable() {
+					public void run() {
+						saved = true;
+						if (pendingNotes != null && !isFinishing()) {
+							submit(pendingNotes);
+						}
+					}
+				});
 				unbindService(this);
 			}
 		};
@@ -0,0 +1,333 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Append-only journal for the trip being recorded. Every point handed to
+ * TripData is appended here as a fixed-size record before it sits in the
+ * write-behind buffer, so a process death loses at most the point the
+ * simplifier was holding back. The journal is truncated back to its header
+ * once the points are committed to SQLite, and deleted when the trip is
+ * finished or discarded.
+ *
+ * A journal left on disk means the recorder died mid-trip: recover()
+ * replays it into the database and finalizes the trip.
+ */
+class TripJournal {
+	private static final String TAG = "TripJournal";
+	static final String FILE_NAME = "trip.journal";
+
+	static final int MAGIC = 0x43594a4c; // "CYJL"
+	static final int VERSION = 1;
+	// magic, version, trip id, start time
+	static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+	// lat, lgt, time, acc, alt, speed
+	static final int RECORD_SIZE = 4 + 4 + 8 + 4 + 8 + 4;
+
+	// Trip being journaled by a live recorder in this process, if any
+	private static long sActiveTripId = -1;
+
+	private final Context ctx;
+	private final File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+	public TripJournal(Context ctx) {
+		this.ctx = ctx.getApplicationContext();
+		this.file = journalFile(ctx);
+	}
+
+	static File journalFile(Context ctx) {
+		return new File(ctx.getFilesDir(), FILE_NAME);
+	}
+
+	static synchronized long getActiveTripId() {
+		return sActiveTripId;
+	}
+
+	private static synchronized void setActiveTripId(long tripid) {
+		sActiveTripId = tripid;
+	}
+
+	/**
+	 * Create the row for a trip about to be recorded, and mark it as the
+	 * one being recorded in the same step, first recovering any ride a dead
+	 * recorder left behind. cleanUpTrips() takes the same lock, so it never
+	 * sees the new row without knowing it is being recorded.
+	 * 
+	 * @return the new trip's id
+	 */
+	static synchronized long createTrip(Context ctx) {
+		recover(ctx);
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			long tripid = db.createTrip();
+			setActiveTripId(tripid);
+			return tripid;
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Delete the unfinished trips crashes left behind, sparing the one
+	 * being recorded.
+	 * 
+	 * @return the number of trips deleted
+	 */
+	static synchronized int cleanUpTrips(Context ctx) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			return db.cleanTripsCoordsTables(sActiveTripId);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Start journaling a new trip. A journal some other trip left behind is
+	 * replayed into the database first, so its ride is never lost to the
+	 * truncation.
+	 */
+	public synchronized void start(long tripid, double startTime)
+			throws IOException {
+		close();
+		replay(ctx, tripid);
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		channel.truncate(0);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(tripid)
+				.putDouble(startTime);
+		header.flip();
+		channel.write(header, 0);
+		channel.position(HEADER_SIZE);
+		channel.force(true);
+		setActiveTripId(tripid);
+	}
+
+	public synchronized void append(CyclePoint pt) throws IOException {
+		if (channel == null) {
+			return;
+		}
+		record.clear();
+		record.putInt(pt.latitude).putInt(pt.longitude).putDouble(pt.time)
+				.putFloat(pt.accuracy).putDouble(pt.altitude)
+				.putFloat(pt.speed);
+		record.flip();
+		channel.write(record);
+	}
+
+	/**
+	 * Drop all records: call only after they are committed to SQLite.
+	 */
+	public synchronized void truncate() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		channel.truncate(HEADER_SIZE);
+		channel.position(HEADER_SIZE);
+	}
+
+	/**
+	 * The trip is finished or discarded; nothing left to recover.
+	 */
+	public synchronized void delete() {
+		close();
+		file.delete();
+		setActiveTripId(-1);
+	}
+
+	private void close() {
+		try {
+			if (raf != null) {
+				raf.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Closing journal", e);
+		}
+		raf = null;
+		channel = null;
+	}
+
+	/**
+	 * Replay a journal left by a recorder that died, and finalize its trip
+	 * so the saved-trips cleanup doesn't throw the ride away. Does nothing
+	 * while a recorder in this process owns the journal.
+	 * 
+	 * @return the recovered trip id, or -1 if there was nothing to recover
+	 */
+	static synchronized long recover(Context ctx) {
+		if (getActiveTripId() >= 0) {
+			return -1;
+		}
+		return replay(ctx, -1);
+	}
+
+	// Replay and delete the journal on disk, unless it is ownTripId's own
+	private static synchronized long replay(Context ctx, long ownTripId) {
+		File file = journalFile(ctx);
+		if (!file.exists()) {
+			return -1;
+		}
+
+		long tripid = -1;
+		try {
+			ByteBuffer buf = readFully(file);
+			if (buf.remaining() >= HEADER_SIZE && buf.getInt() == MAGIC
+					&& buf.getInt() == VERSION) {
+				tripid = buf.getLong();
+				if (tripid == ownTripId) {
+					return -1;
+				}
+				double startTime = buf.getDouble();
+				tripid = replay(ctx, tripid, startTime, buf);
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Reading journal", e);
+			tripid = -1;
+		}
+
+		file.delete();
+		return tripid;
+	}
+
+	private static ByteBuffer readFully(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel ch = in.getChannel();
+			ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+			while (buf.hasRemaining() && ch.read(buf) >= 0) {
+			}
+			buf.flip();
+			return buf;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static long replay(Context ctx, long tripid, double startTime,
+			ByteBuffer records) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			Cursor trip = db.fetchTrip(tripid);
+			boolean exists = trip != null && trip.getCount() > 0;
+			// The points don't show pauses; keep what was checkpointed
+			double pausedTime = 0;
+			if (exists) {
+				int colPause = trip.getColumnIndex(DbAdapter.K_TRIP_PAUSETIME);
+				if (!trip.isNull(colPause)) {
+					pausedTime = trip.getDouble(colPause);
+				}
+			}
+			if (trip != null) {
+				trip.close();
+			}
+			if (!exists) {
+				return -1;
+			}
+
+			// Points committed just before the crash may also be in the
+			// journal if we died before truncating it
+			double lastTime = db.lastCoordTime(tripid);
+			int replayed = 0;
+
+			db.beginTransaction();
+			try {
+				while (records.remaining() >= RECORD_SIZE) {
+					int lat = records.getInt();
+					int lgt = records.getInt();
+					double time = records.getDouble();
+					float acc = records.getFloat();
+					double alt = records.getDouble();
+					float speed = records.getFloat();
+					if (time > lastTime) {
+						db.insertCoord(tripid, lat, lgt, time, acc, alt, speed);
+						replayed++;
+					}
+				}
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+
+			TripSummary summary = TripSummary.read(db, tripid);
+			if (summary.numpoints == 0) {
+				db.deleteAllCoordsForTrip(tripid);
+				db.deleteTrip(tripid);
+				return -1;
+			}
+
+			SimpleDateFormat sdfStart = new SimpleDateFormat("MMMM d, y  HH:mm");
+			String fancyStart = sdfStart.format(startTime);
+			String fancyInfo = String.format(
+					"%1.1f miles, %d minutes.  %s",
+					(0.0006212f * summary.distance),
+					(int) ((summary.lastTime - startTime) / 60000),
+					"Recovered after the app was closed while recording.");
+
+			db.updateTrip(tripid, "", startTime, fancyStart, fancyInfo, "",
+					summary.lathigh, summary.latlow, summary.lgthigh,
+					summary.lgtlow, summary.distance);
+			// Moving time and top speed checkpointed before the crash miss
+			// the journaled tail, so they are rebuilt from the points too
+			db.updateTripSummary(tripid, summary.lastTime, summary.distance,
+					summary.lathigh, summary.latlow, summary.lgthigh,
+					summary.lgtlow, summary.movingTime, summary.maxSpeed,
+					pausedTime);
+			db.updateTripStatus(tripid, TripData.STATUS_RECOVERED);
+
+			Log.i(TAG, "Recovered trip " + tripid + ": replayed " + replayed
+					+ " points, " + summary.numpoints + " in total");
+			return tripid;
+		} finally {
+			db.close();
+		}
+	}
+}
@@ -31,10 +31,12 @@
 package edu.gatech.ppl.cycleatlanta;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import android.app.Activity;
 import android.content.pm.ActivityInfo;
 import android.graphics.Color;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
@@ -60,11 +62,21 @@ public class TripMapActivity extends Activity {
 	GoogleMap map;
 	// List<Overlay> mapOverlays;
 	// xwDrawable drawable;
-	ArrayList<CyclePoint> gpspoints;
 	// float[] lineCoords;
-	Polyline polyline;
+	// One per chunk of points while the track streams in, then just the
+	// level-of-detail line
+	final ArrayList<Polyline> polylines = new ArrayList<Polyline>();
 
-	private LatLngBounds.Builder bounds;
+	private TripLoadTask loader;
+
+	// The track at each level of detail, finest first, once loaded
+	private ArrayList<List<LatLng>> levels;
+	private double levelLatitude;
+	private Polyline levelLine;
+	private int shownLevel = -1;
+
+	// Extent to fit once the map has been laid out
+	private LatLngBounds pendingExtent;
 
 	@Override
 	public void onCreate(Bundle savedInstanceState) {
@@ -87,131 +99,31 @@ public class TripMapActivity extends Activity {
 			// mapOverlays = mapView.getOverlays();
 			// if (mapOverlays != null) mapOverlays.clear();
 
-			Bundle cmds = getIntent().getExtras();
-			long tripid = cmds.getLong("showtrip");
-
-			TripData trip = TripData.fetchTrip(this, tripid);
-
-			// Show trip details
-			TextView t1 = (TextView) findViewById(R.id.TextViewMapPurpose);
-			TextView t2 = (TextView) findViewById(R.id.TextViewMapInfo);
-			TextView t3 = (TextView) findViewById(R.id.TextViewMapFancyStart);
-			t1.setText(trip.purp);
-			t2.setText(trip.info);
-			t3.setText(trip.fancystart);
-
-			// Center & zoom the map
-			// int latcenter = (trip.lathigh + trip.latlow) / 2;
-			// int lgtcenter = (trip.lgthigh + trip.lgtlow) / 2;
-			// LatLng center = new LatLng(latcenter, lgtcenter);
-
-			// map.animateCamera(CameraUpdateFactory.newLatLngZoom(center,16));
-
-			// trip = trips[0]; // always get just the first trip
-
-			gpspoints = trip.getPoints();
-
-			Log.v("Jason", gpspoints.toString());
-
-			Log.v("Jason", String.valueOf(trip.startpoint.latitude * 1E-6));
-			Log.v("Jason", String.valueOf(trip.startpoint.longitude * 1E-6));
-			Log.v("Jason", String.valueOf(trip.endpoint.latitude * 1E-6));
-			Log.v("Jason", String.valueOf(trip.endpoint.longitude * 1E-6));
-
-			if (trip.startpoint != null) {
-				map.addMarker(new MarkerOptions()
-						.icon(BitmapDescriptorFactory
-								.fromResource(R.drawable.pingreen))
-						.anchor(0.0f, 1.0f) // Anchors the marker on the bottom
-											// left
-						.position(
-								new LatLng(trip.startpoint.latitude * 1E-6,
-										trip.startpoint.longitude * 1E-6)));
-
-				// mapOverlays.add(new PushPinOverlay(trip.startpoint,
-				// R.drawable.pingreen));
-			}
-			if (trip.endpoint != null) {
-				map.addMarker(new MarkerOptions()
-						.icon(BitmapDescriptorFactory
-								.fromResource(R.drawable.pinpurple))
-						.anchor(0.0f, 1.0f) // Anchors the marker on the bottom
-											// left
-						.position(
-								new LatLng(trip.endpoint.latitude * 1E-6,
-										trip.endpoint.longitude * 1E-6)));
-
-				// mapOverlays.add(new PushPinOverlay(trip.endpoint,
-				// R.drawable.pinpurple));
-			}
-
-			bounds = new LatLngBounds.Builder();
-
-			PolylineOptions rectOptions = new PolylineOptions();
-			rectOptions.geodesic(true).color(Color.BLUE);
-
-			Log.v("Jason", String.valueOf(gpspoints.size()));
-
-			// //startpoint
-			// map.addMarker(new MarkerOptions()
-			// .icon(BitmapDescriptorFactory.fromResource(R.drawable.pingreen))
-			// .anchor(0.0f, 1.0f) // Anchors the marker on the bottom left
-			// .position(new LatLng(gpspoints.get(0).latitude*1E-6,
-			// gpspoints.get(0).longitude*1E-6)));
-			//
-			// //endpoint
-			// map.addMarker(new MarkerOptions()
-			// .icon(BitmapDescriptorFactory.fromResource(R.drawable.pinpurple))
-			// .anchor(0.0f, 1.0f) // Anchors the marker on the bottom left
-			// .position(new
-			// LatLng(gpspoints.get(gpspoints.size()-1).latitude*1E-6,
-			// gpspoints.get(gpspoints.size()-1).longitude*1E-6)));
-
-			for (int i = 0; i < gpspoints.size(); i++) {
-				LatLng point = new LatLng(gpspoints.get(i).latitude * 1E-6,
-						gpspoints.get(i).longitude * 1E-6);
-				// Log.v("Jason",String.valueOf(gpspoints.get(i).latitude*1E-6));
-				// Log.v("Jason",String.valueOf(gpspoints.get(i).longitude*1E-6));
-				bounds.include(point);
-				rectOptions.add(point);
-			}
-
-			polyline = map.addPolyline(rectOptions);
-
-			// map.moveCamera(CameraUpdateFactory.newLatLngBounds(bounds.build(),
-			// 480, 320, 10));
-
 			map.setOnCameraChangeListener(new OnCameraChangeListener() {
 
 				@Override
-				public void onCameraChange(CameraPosition arg0) {
-					// Move camera.
-					map.moveCamera(CameraUpdateFactory.newLatLngBounds(
-							bounds.build(), 50));
-					// Remove listener to prevent position reset on camera move.
-					map.setOnCameraChangeListener(null);
+				public void onCameraChange(CameraPosition position) {
+					if (pendingExtent != null) {
+						LatLngBounds extent = pendingExtent;
+						pendingExtent = null;
+						// Comes back here with the new zoom
+						map.moveCamera(CameraUpdateFactory.newLatLngBounds(
+								extent, 50));
+						return;
+					}
+					showLevel(position.zoom);
 				}
 			});
 
-			// MapController mc = mapView.getController();
-			// mc.animateTo(center);
-			// Add 500 to map span, to guarantee pins fit on map
-			// mc.zoomToSpan(500+trip.lathigh - trip.latlow, 500+trip.lgthigh -
-			// trip.lgtlow);
-
-			// if (gpspoints == null) {
-			// AddPointsToMapLayerTask maptask = new AddPointsToMapLayerTask();
-			// maptask.execute(trip);
-			// } else {
-			// mapOverlays.add(gpspoints);
-			// }
-
-			if (trip.status < TripData.STATUS_SENT && cmds != null
-					&& cmds.getBoolean("uploadTrip", false)) {
-				// And upload to the cloud database, too! W00t W00t!
-				TripUploader uploader = new TripUploader(TripMapActivity.this);
-				uploader.execute(trip.tripid);
-			}
+			Bundle cmds = getIntent().getExtras();
+			long tripid = cmds.getLong("showtrip");
+
+			// Everything from the database is read in the background: the
+			// trip row first, to fit the camera, then the points a chunk
+			// at a time, each drawn as soon as it arrives
+			boolean upload = cmds.getBoolean("uploadTrip", false);
+			loader = new TripLoadTask(tripid, upload);
+			loader.execute();
 
 		} catch (Exception e) {
 			Log.e("GOT!", e.toString());
@@ -229,7 +141,7 @@ public class TripMapActivity extends Activity {
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
 		if (keyCode == KeyEvent.KEYCODE_BACK && map != null) {
 			// map.getOverlays().clear();
-			polyline.remove();
+			removePolylines();
 		}
 		return super.onKeyDown(keyCode, event);
 	}
@@ -251,7 +163,7 @@ public class TripMapActivity extends Activity {
 		case R.id.action_close_trip_map:
 			// close -> go back to FragmentMainInput
 			if (map != null) {
-				polyline.remove();
+				removePolylines();
 			}
 
 			onBackPressed();
@@ -269,6 +181,218 @@ public class TripMapActivity extends Activity {
 		}
 	}
 
+	@Override
+	protected void onDestroy() {
+		if (loader != null) {
+			loader.cancel(true);
+		}
+		super.onDestroy();
+	}
+
+	void removePolylines() {
+		for (Polyline p : polylines) {
+			p.remove();
+		}
+		polylines.clear();
+		levelLine = null;
+		shownLevel = -1;
+	}
+
+	// Fit the camera to the trip's extent. Before the map has been laid out
+	// that throws, so leave it for the first camera change instead.
+	void fitCamera(LatLngBounds extent) {
+		try {
+			map.moveCamera(CameraUpdateFactory.newLatLngBounds(extent, 50));
+		} catch (IllegalStateException e) {
+			pendingExtent = extent;
+		}
+	}
+
+	// Draw the level that suits this zoom, if it isn't the one shown: about
+	// a vertex per pixel of track, however far out the camera is
+	void showLevel(float zoom) {
+		if (levels == null || levels.isEmpty()) {
+			return;
+		}
+		int level = TrackLevels.levelFor(zoom, levelLatitude, levels.size());
+		if (level == shownLevel) {
+			return;
+		}
+		shownLevel = level;
+		if (levelLine == null) {
+			levelLine = map.addPolyline(new PolylineOptions().geodesic(true)
+					.color(Color.BLUE).addAll(levels.get(level)));
+			polylines.add(levelLine);
+		} else {
+			levelLine.setPoints(levels.get(level));
+		}
+	}
+
+	/**
+	 * Reads the trip row, then its stored levels of detail. Progress is
+	 * published as the TripData first. A trip shown for the first time has
+	 * no levels yet: its points are streamed and published as one list of
+	 * vertices per stored chunk, each list starting with the last vertex of
+	 * the one before so the pieces join up, and the levels are built from
+	 * them and stored for next time.
+	 */
+	private class TripLoadTask extends
+			AsyncTask<Void, Object, ArrayList<List<LatLng>>> {
+		private final long tripid;
+		private final boolean upload;
+		private boolean first = true;
+
+		TripLoadTask(long tripid, boolean upload) {
+			this.tripid = tripid;
+			this.upload = upload;
+		}
+
+		@Override
+		protected ArrayList<List<LatLng>> doInBackground(Void... params) {
+			TripData trip = TripData.fetchTrip(TripMapActivity.this, tripid);
+			publishProgress(trip);
+
+			DbAdapter db = new DbAdapter(TripMapActivity.this);
+			db.open();
+			String[] encoded;
+			try {
+				encoded = TrackLevels.load(db, tripid);
+				if (encoded == null) {
+					TrackBuffer track = streamPoints(db);
+					if (isCancelled()) {
+						return null;
+					}
+					// A trip still being recorded will grow; don't keep it
+					if (trip.status == TripData.STATUS_INCOMPLETE) {
+						encoded = TrackLevels.build(track);
+					} else {
+						encoded = TrackLevels.buildAndStore(db, tripid, track);
+					}
+				}
+			} finally {
+				db.close();
+			}
+
+			ArrayList<List<LatLng>> decoded = new ArrayList<List<LatLng>>(
+					encoded.length);
+			for (String level : encoded) {
+				int[] coords = PolylineCodec.decode(level);
+				ArrayList<LatLng> points = new ArrayList<LatLng>(
+						coords.length / 2);
+				for (int i = 0; i < coords.length; i += 2) {
+					points.add(new LatLng(coords[i] * 1E-6,
+							coords[i + 1] * 1E-6));
+				}
+				decoded.add(points);
+			}
+			return decoded;
+		}
+
+		private TrackBuffer streamPoints(DbAdapter db) {
+			TrackBuffer track = new TrackBuffer();
+			TrackReader points = new TrackReader(db, tripid);
+			try {
+				LatLng last = null;
+				ArrayList<LatLng> piece = new ArrayList<LatLng>(
+						TrackCodec.POINTS_PER_CHUNK + 1);
+				while (!isCancelled() && points.next()) {
+					track.add(points.lat(), points.lgt(), points.time(),
+							points.acc(), points.alt(), points.speed());
+					if (piece.isEmpty() && last != null) {
+						piece.add(last);
+					}
+					last = new LatLng(points.lat() * 1E-6,
+							points.lgt() * 1E-6);
+					piece.add(last);
+					if (piece.size() > TrackCodec.POINTS_PER_CHUNK) {
+						publishProgress(piece);
+						piece = new ArrayList<LatLng>(
+								TrackCodec.POINTS_PER_CHUNK + 1);
+					}
+				}
+				if (piece.size() > 1 || (first && !piece.isEmpty())) {
+					publishProgress(piece);
+				}
+			} finally {
+				points.close();
+			}
+			return track;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override
+		protected void onProgressUpdate(Object... values) {
+			if (values[0] instanceof TripData) {
+				showTrip((TripData) values[0]);
+			} else {
+				showPiece((ArrayList<LatLng>) values[0]);
+			}
+		}
+
+		private void showTrip(TripData trip) {
+			// Show trip details
+			TextView t1 = (TextView) findViewById(R.id.TextViewMapPurpose);
+			TextView t2 = (TextView) findViewById(R.id.TextViewMapInfo);
+			TextView t3 = (TextView) findViewById(R.id.TextViewMapFancyStart);
+			t1.setText(trip.purp);
+			t2.setText(trip.info);
+			t3.setText(trip.fancystart);
+
+			// The stored extent is enough to frame the trip before any
+			// point has been read
+			if (trip.latlow <= trip.lathigh && trip.lgtlow <= trip.lgthigh) {
+				fitCamera(new LatLngBounds(new LatLng(trip.latlow * 1E-6,
+						trip.lgtlow * 1E-6), new LatLng(trip.lathigh * 1E-6,
+						trip.lgthigh * 1E-6)));
+			}
+
+			if (trip.status < TripData.STATUS_SENT && upload) {
+				// And upload to the cloud database, too! W00t W00t!
+				TripUploader uploader = new TripUploader(TripMapActivity.this);
+				uploader.execute(trip.tripid);
+			}
+		}
+
+		private void showPiece(List<LatLng> piece) {
+			if (first) {
+				first = false;
+				addMarker(R.drawable.pingreen, piece.get(0));
+			}
+			if (piece.size() > 1) {
+				polylines.add(map.addPolyline(new PolylineOptions()
+						.geodesic(true).color(Color.BLUE).addAll(piece)));
+			}
+		}
+
+		private void addMarker(int icon, LatLng position) {
+			map.addMarker(new MarkerOptions()
+					.icon(BitmapDescriptorFactory.fromResource(icon))
+					.anchor(0.0f, 1.0f) // Anchors the marker on the bottom
+										// left
+					.position(position));
+		}
+
+		@Override
+		protected void onPostExecute(ArrayList<List<LatLng>> result) {
+			if (result == null || result.isEmpty()
+					|| result.get(0).isEmpty()) {
+				return;
+			}
+			List<LatLng> finest = result.get(0);
+			if (first) {
+				first = false;
+				addMarker(R.drawable.pingreen, finest.get(0));
+			}
+			addMarker(R.drawable.pinpurple, finest.get(finest.size() - 1));
+
+			// Swap the streamed pieces for the level that fits the zoom
+			removePolylines();
+			levels = result;
+			levelLatitude = finest.get(0).latitude;
+			showLevel(map.getCameraPosition().zoom);
+		}
+	}
+
 	// private class AddPointsToMapLayerTask extends AsyncTask <TripData,
 	// Integer, ArrayList<CyclePoint>> {
 	// TripData trip;
@@ -54,6 +54,10 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 public class TripPurposeActivity extends Activity {
+	// Set when describing a trip recovered after a crash instead of the one
+	// the service just recorded
+	static final String EXTRA_RECOVERED_TRIP = "recoveredtrip";
+
 	// HashMap<Integer, ToggleButton> purpButtons = new HashMap<Integer,
 	// ToggleButton>();
 	String purpose = "";
@@ -62,6 +66,8 @@ public class TripPurposeActivity extends Activity {
 
 	String[] values;
 
+	long recoveredTripId = -1;
+
 	private MenuItem saveMenuItem;
 
 	// Set up the purpose buttons to be one-click only
@@ -121,6 +127,8 @@ public class TripPurposeActivity extends Activity {
 
 		setRequestedOrientation(ActivityInfo.SCREEN_ORIENTATION_PORTRAIT);
 
+		recoveredTripId = getIntent().getLongExtra(EXTRA_RECOVERED_TRIP, -1);
+
 		// Set up trip purpose buttons
 		purpose = "";
 		preparePurposeButtons();
@@ -204,6 +212,24 @@ public class TripPurposeActivity extends Activity {
 				WindowManager.LayoutParams.SOFT_INPUT_STATE_ALWAYS_HIDDEN);
 	}
 
+	// Drop the trip just recorded and go back to the main screen. A
+	// recovered trip isn't the service's to drop: it stays in the saved
+	// list, waiting for its purpose.
+	void discardTrip() {
+		if (recoveredTripId < 0) {
+			Toast.makeText(getBaseContext(), "Trip discarded.",
+					Toast.LENGTH_SHORT).show();
+			cancelRecording();
+		}
+
+		Intent i = new Intent(TripPurposeActivity.this, TabsConfig.class);
+		i.putExtra("keepme", true);
+		startActivity(i);
+		overridePendingTransition(android.R.anim.slide_in_left,
+				android.R.anim.slide_out_right);
+		TripPurposeActivity.this.finish();
+	}
+
 	void cancelRecording() {
 		Intent rService = new Intent(this, RecordingService.class);
 		ServiceConnection sc = new ServiceConnection() {
@@ -237,17 +263,7 @@ public class TripPurposeActivity extends Activity {
 		// Handle presses on the action bar items
 		switch (item.getItemId()) {
 		case R.id.action_cancel_trip_purpose:
-			Toast.makeText(getBaseContext(), "Trip discarded.",
-					Toast.LENGTH_SHORT).show();
-
-			cancelRecording();
-
-			Intent i = new Intent(TripPurposeActivity.this, TabsConfig.class);
-			i.putExtra("keepme", true);
-			startActivity(i);
-			overridePendingTransition(android.R.anim.slide_in_left,
-					android.R.anim.slide_out_right);
-			TripPurposeActivity.this.finish();
+			discardTrip();
 			return true;
 		case R.id.action_save_trip_purpose:
 			// move to next view
@@ -255,6 +271,10 @@ public class TripPurposeActivity extends Activity {
 			Intent intentToTripDetail = new Intent(TripPurposeActivity.this,
 					TripDetailActivity.class);
 			intentToTripDetail.putExtra("purpose", purpose);
+			if (recoveredTripId >= 0) {
+				intentToTripDetail.putExtra(EXTRA_RECOVERED_TRIP,
+						recoveredTripId);
+			}
 			startActivity(intentToTripDetail);
 			overridePendingTransition(R.anim.slide_in_right,
 					R.anim.slide_out_left);
@@ -268,34 +288,14 @@ public class TripPurposeActivity extends Activity {
 	// 2.0 and above
 	@Override
 	public void onBackPressed() {
-		Toast.makeText(getBaseContext(), "Trip discarded.", Toast.LENGTH_SHORT)
-				.show();
-
-		cancelRecording();
-
-		Intent i = new Intent(TripPurposeActivity.this, TabsConfig.class);
-		i.putExtra("keepme", true);
-		startActivity(i);
-		overridePendingTransition(android.R.anim.slide_in_left,
-				android.R.anim.slide_out_right);
-		TripPurposeActivity.this.finish();
+		discardTrip();
 	}
 
 	// Before 2.0
 	@Override
 	public boolean onKeyDown(int keyCode, KeyEvent event) {
 		if (keyCode == KeyEvent.KEYCODE_BACK) {
-			Toast.makeText(getBaseContext(), "Trip discarded.",
-					Toast.LENGTH_SHORT).show();
-
-			cancelRecording();
-
-			Intent i = new Intent(TripPurposeActivity.this, TabsConfig.class);
-			i.putExtra("keepme", true);
-			startActivity(i);
-			overridePendingTransition(android.R.anim.slide_in_left,
-					android.R.anim.slide_out_right);
-			TripPurposeActivity.this.finish();
+			discardTrip();
 			return true;
 		}
 		return super.onKeyDown(keyCode, event);
@@ -0,0 +1,167 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Works out a finished trip's summary (duration, moving time, point count,
+ * CO2, calories, speeds) once, and stores it in the trips row. Run off the
+ * UI thread: it may read every point of the trip.
+ */
+class TripStats {
+	private static final String TAG = "TripStats";
+
+	static final double MILES_PER_METER = 0.0006212;
+	// Pounds of CO2 saved per mile not driven
+	static final double CO2_PER_MILE = 0.93;
+	static final double KCAL_PER_MILE = 49;
+	static final double KCAL_OFFSET = 1.69;
+	// Summarized per backfill, so one pass stays short; the rest are done
+	// on later ones
+	static final int MAX_BACKFILL = 20;
+
+	private TripStats() {
+	}
+
+	static float co2(float distance) {
+		return (float) (distance * MILES_PER_METER * CO2_PER_MILE);
+	}
+
+	static float calories(float distance) {
+		return (float) Math.max(0, distance * MILES_PER_METER * KCAL_PER_MILE
+				- KCAL_OFFSET);
+	}
+
+	/**
+	 * Compute and store the summary of one trip. Distance, end time, paused
+	 * time, moving time and top speed are taken from the trips row, as the
+	 * recorder left them; the recorder measured the last two from every
+	 * fix. Trips from before it did so have them rebuilt from the stored
+	 * points.
+	 */
+	public static boolean update(DbAdapter db, long tripid) {
+		double start, end;
+		float distance;
+		boolean hasMotion;
+		double pausedTime = 0;
+		double movingTime = 0;
+		float maxSpeed = 0;
+		Cursor trip = db.fetchTrip(tripid);
+		try {
+			if (trip == null || trip.getCount() == 0) {
+				return false;
+			}
+			start = trip.getDouble(trip.getColumnIndex(DbAdapter.K_TRIP_START));
+			end = trip.getDouble(trip.getColumnIndex(DbAdapter.K_TRIP_END));
+			distance = trip.getFloat(trip
+					.getColumnIndex(DbAdapter.K_TRIP_DISTANCE));
+			int colPause = trip.getColumnIndex(DbAdapter.K_TRIP_PAUSETIME);
+			if (!trip.isNull(colPause)) {
+				pausedTime = trip.getDouble(colPause);
+			}
+			int colMoving = trip.getColumnIndex(DbAdapter.K_TRIP_MOVINGTIME);
+			hasMotion = !trip.isNull(colMoving);
+			if (hasMotion) {
+				movingTime = trip.getDouble(colMoving);
+				maxSpeed = trip.getFloat(trip
+						.getColumnIndex(DbAdapter.K_TRIP_MAXSPEED));
+			}
+		} finally {
+			if (trip != null) {
+				trip.close();
+			}
+		}
+
+		int numpoints;
+		if (hasMotion) {
+			numpoints = db.countPointsForTrip(tripid);
+		} else {
+			TripSummary summary = TripSummary.read(db, tripid);
+			numpoints = summary.numpoints;
+			movingTime = summary.movingTime;
+			maxSpeed = summary.maxSpeed;
+		}
+
+		// Auto-paused time isn't riding time
+		double duration = Math.max(0, end - start - pausedTime);
+		double moving = movingTime > 0 ? movingTime : duration;
+		float avgspeed = moving > 0 ? (float) (distance / (moving / 1000))
+				: 0;
+
+		return db.updateTripStats(tripid, duration, movingTime, numpoints,
+				co2(distance), calories(distance), avgspeed, maxSpeed);
+	}
+
+	public static boolean updateTrip(Context ctx, long tripid) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			return update(db, tripid);
+		} finally {
+			db.close();
+		}
+	}
+
+	/**
+	 * Fill in the summary of the finished trips that lack one: trips from
+	 * before these columns existed, and recovered trips. At most
+	 * MAX_BACKFILL are done per call, newest first.
+	 */
+	public static void backfill(Context ctx) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			Cursor trips = db.fetchTripsWithoutStats(MAX_BACKFILL);
+			if (trips == null) {
+				return;
+			}
+			long[] tripids = new long[trips.getCount()];
+			for (int i = 0; !trips.isAfterLast(); i++) {
+				tripids[i] = trips.getLong(0);
+				trips.moveToNext();
+			}
+			trips.close();
+
+			for (long tripid : tripids) {
+				update(db, tripid);
+			}
+			if (tripids.length > 0) {
+				Log.i(TAG, "Summarized " + tripids.length + " trips");
+			}
+		} finally {
+			db.close();
+		}
+	}
+}
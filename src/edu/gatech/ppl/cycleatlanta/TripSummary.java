@@ -0,0 +1,171 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.location.Location;
+
+/**
+ * Running totals for a trip, kept in memory while recording and written to
+ * the trips row only at checkpoints, rather than rewriting the row for
+ * every point.
+ */
+class TripSummary {
+	static final float MOVING_SPEED = 0.5f; // m/s
+	// Longer than TrackSimplifier.MAX_GAP, so a straight run between two
+	// kept points still counts when the totals are rebuilt from storage
+	static final double MAX_MOVING_GAP = 90000; // ms
+
+	int lathigh, latlow, lgthigh, lgtlow;
+	float distance; // meters
+	double movingTime; // ms
+	float maxSpeed; // m/s
+	double pausedTime; // ms, finished pauses only
+	int numpoints;
+	double firstTime, lastTime;
+
+	private double lastFixTime;
+	// Bumped by breakRun(), which may come from another thread; the next
+	// fix then starts a new run rather than bridging the gap
+	private volatile int runBreaks;
+	private int runBreaksSeen;
+	private boolean dirty;
+
+	public TripSummary() {
+		reset();
+	}
+
+	/**
+	 * Rebuild the totals from a trip's stored points, measuring distance
+	 * point to point.
+	 */
+	static TripSummary read(DbAdapter db, long tripid) {
+		TripSummary summary = new TripSummary();
+		TrackReader points = new TrackReader(db, tripid);
+
+		float[] segment = new float[1];
+		float distance = 0;
+		CyclePoint prev = null;
+		while (points.next()) {
+			CyclePoint pt = new CyclePoint(points.lat(), points.lgt(),
+					points.time(), points.acc(), points.alt(), points.speed());
+			if (prev != null) {
+				Location.distanceBetween(prev.latitude / 1E6,
+						prev.longitude / 1E6, pt.latitude / 1E6,
+						pt.longitude / 1E6, segment);
+				distance += segment[0];
+			}
+			summary.add(pt, distance);
+			summary.addFix(pt.time, pt.speed);
+			prev = pt;
+		}
+		points.close();
+		return summary;
+	}
+
+	public void reset() {
+		lathigh = (int) (-100 * 1E6);
+		latlow = (int) (100 * 1E6);
+		lgtlow = (int) (180 * 1E6);
+		lgthigh = (int) (-180 * 1E6);
+		distance = 0;
+		movingTime = 0;
+		maxSpeed = 0;
+		numpoints = 0;
+		firstTime = lastTime = 0;
+		lastFixTime = 0;
+		pausedTime = 0;
+		dirty = false;
+	}
+
+	/**
+	 * Fold in the next point. Distance is the recorder's running total, so
+	 * it is taken as-is rather than re-measured here.
+	 */
+	public void add(CyclePoint pt, float distanceSoFar) {
+		latlow = Math.min(latlow, pt.latitude);
+		lathigh = Math.max(lathigh, pt.latitude);
+		lgtlow = Math.min(lgtlow, pt.longitude);
+		lgthigh = Math.max(lgthigh, pt.longitude);
+
+		if (numpoints == 0) {
+			firstTime = pt.time;
+		}
+		distance = distanceSoFar;
+		lastTime = pt.time;
+		numpoints++;
+		dirty = true;
+	}
+
+	/**
+	 * Fold in a fix's time and speed for moving time and top speed. The
+	 * recorder calls this for every fix it accepts, not just the points the
+	 * simplifier keeps, which can be far enough apart to look like stops.
+	 */
+	public void addFix(double time, float speed) {
+		int breaks = runBreaks;
+		if (lastFixTime > 0 && breaks == runBreaksSeen) {
+			double dt = time - lastFixTime;
+			if (speed > MOVING_SPEED && dt > 0 && dt < MAX_MOVING_GAP) {
+				movingTime += dt;
+			}
+		}
+		maxSpeed = Math.max(maxSpeed, speed);
+		lastFixTime = time;
+		runBreaksSeen = breaks;
+		dirty = true;
+	}
+
+	/**
+	 * The recorder paused or resumed: fixes on either side of the pause are
+	 * not one run. Without this, a stop shorter than MAX_MOVING_GAP would
+	 * count as moving in full, since the fix that resumes it is moving.
+	 */
+	public void breakRun() {
+		runBreaks++;
+	}
+
+	public void setPausedTime(double pausedTime) {
+		if (pausedTime != this.pausedTime) {
+			this.pausedTime = pausedTime;
+			dirty = true;
+		}
+	}
+
+	// Anything new since the last checkpoint?
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	public void markClean() {
+		dirty = false;
+	}
+}
@@ -0,0 +1,276 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.util.Log;
+
+/**
+ * Small route previews for the saved trips list, one PNG per trip in the
+ * cache directory, named by trip id. They are drawn once, when a trip is
+ * finished, from the trip's stored levels of detail (see TrackLevels), so
+ * showing one never reads a trip's points. ThumbnailLoader reads them back
+ * for the list.
+ *
+ * Only the newest MAX_FILES trips keep one; older rows show no preview.
+ */
+final class TripThumbnails {
+	private static final String TAG = "TripThumbnails";
+	private static final String DIR = "trip_thumbnails";
+
+	static final int SIZE_DP = 64;
+	static final int MAX_FILES = 500;
+	// Tried per backfill, so one service start never holds the recording
+	// thread for long; the rest are drawn on later starts
+	static final int MAX_BACKFILL = 20;
+	private static final float PADDING_DP = 4;
+	private static final float STROKE_DP = 2;
+
+	private TripThumbnails() {
+	}
+
+	static File dir(Context ctx) {
+		File dir = new File(ctx.getCacheDir(), DIR);
+		if (!dir.isDirectory()) {
+			dir.mkdirs();
+		}
+		return dir;
+	}
+
+	public static File file(Context ctx, long tripid) {
+		return new File(dir(ctx), tripid + ".png");
+	}
+
+	/**
+	 * Draw and save the preview of one finished trip. Reads the trip's
+	 * points if its levels haven't been built yet, so run it off the UI
+	 * thread.
+	 */
+	public static boolean render(Context ctx, DbAdapter db, long tripid) {
+		String[] levels = TrackLevels.loadOrBuild(db, tripid);
+		if (levels.length == 0) {
+			return false;
+		}
+		int[] coords = PolylineCodec.decode(levels[0]);
+		if (coords.length < 4) {
+			return false;
+		}
+
+		// Extent of the finest level, in micro-degrees with longitude
+		// scaled to match latitude
+		int latlo = Integer.MAX_VALUE, lathi = Integer.MIN_VALUE;
+		int lgtlo = Integer.MAX_VALUE, lgthi = Integer.MIN_VALUE;
+		for (int i = 0; i < coords.length; i += 2) {
+			latlo = Math.min(latlo, coords[i]);
+			lathi = Math.max(lathi, coords[i]);
+			lgtlo = Math.min(lgtlo, coords[i + 1]);
+			lgthi = Math.max(lgthi, coords[i + 1]);
+		}
+		double cosLat = Math.cos((latlo + lathi) / 2.0
+				* TrackSimplifier.MICRODEG_TO_RAD);
+		double width = (lgthi - lgtlo) * cosLat;
+		double height = lathi - latlo;
+
+		float density = ctx.getResources().getDisplayMetrics().density;
+		int size = Math.round(SIZE_DP * density);
+		float padding = PADDING_DP * density;
+		double span = Math.max(Math.max(width, height), 1);
+		double scale = (size - 2 * padding) / span;
+
+		// Only as much detail as the bitmap can show
+		double metersPerPixel = span * TrackSimplifier.MICRODEG_TO_RAD
+				* TrackSimplifier.EARTH_RADIUS / (size - 2 * padding);
+		int level = TrackLevels.levelForResolution(metersPerPixel,
+				levels.length);
+		if (level > 0) {
+			coords = PolylineCodec.decode(levels[level]);
+		}
+
+		// Centered in the square, north up
+		float x0 = (float) ((size - width * scale) / 2);
+		float y0 = (float) ((size - height * scale) / 2);
+		Path path = new Path();
+		for (int i = 0; i < coords.length; i += 2) {
+			float x = x0 + (float) ((coords[i + 1] - lgtlo) * cosLat * scale);
+			float y = y0 + (float) ((lathi - coords[i]) * scale);
+			if (i == 0) {
+				path.moveTo(x, y);
+			} else {
+				path.lineTo(x, y);
+			}
+		}
+
+		Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+		paint.setStyle(Paint.Style.STROKE);
+		paint.setStrokeJoin(Paint.Join.ROUND);
+		paint.setStrokeCap(Paint.Cap.ROUND);
+		paint.setStrokeWidth(STROKE_DP * density);
+		paint.setColor(Color.BLUE);
+
+		Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.RGB_565);
+		try {
+			Canvas canvas = new Canvas(bitmap);
+			canvas.drawColor(Color.WHITE);
+			canvas.drawPath(path, paint);
+			return save(ctx, tripid, bitmap);
+		} finally {
+			bitmap.recycle();
+		}
+	}
+
+	public static boolean renderTrip(Context ctx, long tripid) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			return render(ctx, db, tripid);
+		} finally {
+			db.close();
+		}
+	}
+
+	// Written beside the final name and renamed, so the list never decodes
+	// a half-written file. One at a time: the recorder and the backfill may
+	// both draw a trip that just finished.
+	private static synchronized boolean save(Context ctx, long tripid, Bitmap bitmap) {
+		File dest = file(ctx, tripid);
+		File tmp = new File(dest.getPath() + ".tmp");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			if (!bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+				return false;
+			}
+			out.close();
+			out = null;
+			return tmp.renameTo(dest);
+		} catch (IOException e) {
+			Log.e(TAG, "Could not save thumbnail for trip " + tripid, e);
+			return false;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+				}
+			}
+			tmp.delete();
+		}
+	}
+
+	public static void delete(Context ctx, Collection<Long> tripids) {
+		for (Long tripid : tripids) {
+			file(ctx, tripid.longValue()).delete();
+		}
+	}
+
+	/**
+	 * Draw the previews the newest finished trips are missing: trips from
+	 * before previews existed, recovered trips, and files the system
+	 * cleared from the cache. At most MAX_BACKFILL are tried per call, newest
+	 * first. Then trim the directory back to MAX_FILES.
+	 */
+	public static void backfill(Context ctx) {
+		DbAdapter db = new DbAdapter(ctx);
+		db.open();
+		try {
+			Cursor trips = db.fetchFinishedTrips(MAX_FILES);
+			if (trips == null) {
+				return;
+			}
+			long[] tripids = new long[trips.getCount()];
+			for (int i = 0; !trips.isAfterLast(); i++) {
+				tripids[i] = trips.getLong(0);
+				trips.moveToNext();
+			}
+			trips.close();
+
+			int tried = 0, drawn = 0;
+			for (long tripid : tripids) {
+				if (tried >= MAX_BACKFILL) {
+					break;
+				}
+				if (file(ctx, tripid).exists()) {
+					continue;
+				}
+				tried++;
+				if (render(ctx, db, tripid)) {
+					drawn++;
+				}
+			}
+			if (drawn > 0) {
+				Log.i(TAG, "Drew " + drawn + " trip thumbnails");
+			}
+		} finally {
+			db.close();
+		}
+		trim(ctx);
+	}
+
+	/**
+	 * Drop the least recently used files past MAX_FILES. ThumbnailLoader
+	 * touches a file each time it reads one.
+	 */
+	static int trim(Context ctx) {
+		File[] files = dir(ctx).listFiles();
+		if (files == null || files.length <= MAX_FILES) {
+			return 0;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long ma = a.lastModified(), mb = b.lastModified();
+				return (ma < mb) ? -1 : (ma == mb ? 0 : 1);
+			}
+		});
+
+		int deleted = 0;
+		for (int i = 0; i < files.length - MAX_FILES; i++) {
+			if (files[i].delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+}
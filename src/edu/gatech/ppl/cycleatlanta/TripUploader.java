@@ -63,7 +63,6 @@ import android.os.AsyncTask;
 import android.os.Build;
 import android.provider.Settings.System;
 import android.util.Log;
-import android.widget.ListView;
 import android.widget.Toast;
 
 public class TripUploader extends AsyncTask<Long, Integer, Boolean> {
@@ -114,51 +113,24 @@ public class TripUploader extends AsyncTask<Long, Integer, Boolean> {
 		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
 		mDb.openReadOnly();
-		Cursor tripCoordsCursor = mDb.fetchAllCoordsForTrip(tripId);
-
-		// Build the map between JSON fieldname and phone db fieldname:
-		Map<String, Integer> fieldMap = new HashMap<String, Integer>();
-		fieldMap.put(TRIP_COORDS_TIME,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_TIME));
-		fieldMap.put(TRIP_COORDS_LAT,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_LAT));
-		fieldMap.put(TRIP_COORDS_LON,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_LGT));
-		fieldMap.put(TRIP_COORDS_ALT,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_ALT));
-		fieldMap.put(TRIP_COORDS_SPEED,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_SPEED));
-		fieldMap.put(TRIP_COORDS_HACCURACY,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_ACC));
-		fieldMap.put(TRIP_COORDS_VACCURACY,
-				tripCoordsCursor.getColumnIndex(DbAdapter.K_POINT_ACC));
+		TrackReader points = new TrackReader(mDb, tripId);
 
 		// Build JSON objects for each coordinate:
 		JSONObject tripCoords = new JSONObject();
-		while (!tripCoordsCursor.isAfterLast()) {
+		while (points.next()) {
 			JSONObject coord = new JSONObject();
 
-			coord.put(TRIP_COORDS_TIME, df.format(tripCoordsCursor
-					.getDouble(fieldMap.get(TRIP_COORDS_TIME))));
-			coord.put(
-					TRIP_COORDS_LAT,
-					tripCoordsCursor.getDouble(fieldMap.get(TRIP_COORDS_LAT)) / 1E6);
-			coord.put(
-					TRIP_COORDS_LON,
-					tripCoordsCursor.getDouble(fieldMap.get(TRIP_COORDS_LON)) / 1E6);
-			coord.put(TRIP_COORDS_ALT,
-					tripCoordsCursor.getDouble(fieldMap.get(TRIP_COORDS_ALT)));
-			coord.put(TRIP_COORDS_SPEED,
-					tripCoordsCursor.getDouble(fieldMap.get(TRIP_COORDS_SPEED)));
-			coord.put(TRIP_COORDS_HACCURACY, tripCoordsCursor
-					.getDouble(fieldMap.get(TRIP_COORDS_HACCURACY)));
-			coord.put(TRIP_COORDS_VACCURACY, tripCoordsCursor
-					.getDouble(fieldMap.get(TRIP_COORDS_VACCURACY)));
+			coord.put(TRIP_COORDS_TIME, df.format(points.time()));
+			coord.put(TRIP_COORDS_LAT, points.lat() / 1E6);
+			coord.put(TRIP_COORDS_LON, points.lgt() / 1E6);
+			coord.put(TRIP_COORDS_ALT, points.alt());
+			coord.put(TRIP_COORDS_SPEED, (double) points.speed());
+			coord.put(TRIP_COORDS_HACCURACY, (double) points.acc());
+			coord.put(TRIP_COORDS_VACCURACY, (double) points.acc());
 
 			tripCoords.put(coord.getString("r"), coord);
-			tripCoordsCursor.moveToNext();
 		}
-		tripCoordsCursor.close();
+		points.close();
 		mDb.close();
 		return tripCoords;
 	}
@@ -468,21 +440,6 @@ public class TripUploader extends AsyncTask<Long, Integer, Boolean> {
 		return mSavedTripsAdapter;
 	}
 
-	private FragmentSavedTripsSection fragmentSavedTripsSection;
-
-	public FragmentSavedTripsSection setFragmentSavedTripsSection(
-			FragmentSavedTripsSection fragmentSavedTripsSection) {
-		this.fragmentSavedTripsSection = fragmentSavedTripsSection;
-		return fragmentSavedTripsSection;
-	}
-
-	private ListView listSavedTrips;
-
-	public ListView setListView(ListView listSavedTrips) {
-		this.listSavedTrips = listSavedTrips;
-		return listSavedTrips;
-	}
-
 	@Override
 	protected void onPostExecute(Boolean result) {
 		try {
@@ -490,10 +447,8 @@ public class TripUploader extends AsyncTask<Long, Integer, Boolean> {
 				mSavedTripsAdapter.notifyDataSetChanged();
 			}
 
-			if (fragmentSavedTripsSection != null) {
-				listSavedTrips.invalidate();
-				fragmentSavedTripsSection.populateTripList(listSavedTrips);
-			}
+			// No list refresh needed: marking the trip sent notified the
+			// saved trips loader
 			if (result) {
 				Toast.makeText(mCtx.getApplicationContext(),
 						"Trip uploaded successfully.", Toast.LENGTH_SHORT)
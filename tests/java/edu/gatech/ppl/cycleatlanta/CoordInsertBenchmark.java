@@ -0,0 +1,172 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Times writing points through DbAdapter's precompiled statements against
+ * the ContentValues insert/update path it replaced, at 1, 10 and 100 points
+ * per transaction. Both write the same coords table of a scratch database,
+ * deleted afterwards, so the app's own trips are never touched. Each
+ * transaction's points are sliced off before the clock starts. Results go
+ * to the log under TAG.
+ */
+public class CoordInsertBenchmark extends AndroidTestCase {
+	private static final String TAG = "CoordInsertBenchmark";
+	private static final int POINTS = 1000; // per run
+	private static final int[] BATCHES = { 1, 10, 100 };
+	private static final String DATABASE = "coord_insert_benchmark";
+
+	private DbAdapter db;
+	// A second connection to the same file, for the old path
+	private SQLiteDatabase raw;
+	private long tripid;
+	private final List<CyclePoint> points = new ArrayList<CyclePoint>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Left over if a run was killed
+		getContext().deleteDatabase(DATABASE);
+		db = new DbAdapter(getContext(), DATABASE);
+		db.open();
+		tripid = db.createTrip();
+		raw = SQLiteDatabase.openDatabase(getContext()
+				.getDatabasePath(DATABASE).getPath(), null,
+				SQLiteDatabase.OPEN_READWRITE);
+		for (int i = 0; i < POINTS; i++) {
+			points.add(new CyclePoint(33775000 + i, -84396000 - i,
+					1000.0 * i, 5.0f, 300.0, 4.5f));
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		raw.close();
+		db.close();
+		db.deleteScratch();
+		super.tearDown();
+	}
+
+	public void testInsertPaths() {
+		for (int batch : BATCHES) {
+			List<List<CyclePoint>> slices = slice(batch);
+
+			// First runs warm up the statements and the page cache
+			runStatements(slices);
+			runContentValues(slices);
+
+			Debug.startAllocCounting();
+			try {
+				Debug.resetThreadAllocCount();
+				long t0 = System.nanoTime();
+				runStatements(slices);
+				long statementNs = System.nanoTime() - t0;
+				int statementAllocs = Debug.getThreadAllocCount();
+
+				Debug.resetThreadAllocCount();
+				t0 = System.nanoTime();
+				runContentValues(slices);
+				long valuesNs = System.nanoTime() - t0;
+				int valuesAllocs = Debug.getThreadAllocCount();
+
+				Log.i(TAG, batch + " per transaction: statements "
+						+ statementNs / POINTS + " ns, "
+						+ (float) statementAllocs / POINTS
+						+ " allocs per point; ContentValues " + valuesNs
+						/ POINTS + " ns, " + (float) valuesAllocs / POINTS
+						+ " allocs per point");
+			} finally {
+				Debug.stopAllocCounting();
+			}
+		}
+	}
+
+	// The points, batch to a transaction
+	private List<List<CyclePoint>> slice(int batch) {
+		List<List<CyclePoint>> slices = new ArrayList<List<CyclePoint>>();
+		for (int i = 0; i < POINTS; i += batch) {
+			slices.add(points.subList(i, Math.min(i + batch, POINTS)));
+		}
+		return slices;
+	}
+
+	private void runStatements(List<List<CyclePoint>> slices) {
+		for (int i = 0; i < slices.size(); i++) {
+			db.beginTransaction();
+			try {
+				assertTrue(db.addCoordsToTrip(tripid, slices.get(i)));
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+
+	// What addCoordsToTrip did before the statements
+	private void runContentValues(List<List<CyclePoint>> slices) {
+		for (int i = 0; i < slices.size(); i++) {
+			List<CyclePoint> slice = slices.get(i);
+			raw.beginTransactionNonExclusive();
+			try {
+				ContentValues rowValues = new ContentValues();
+				for (int j = 0; j < slice.size(); j++) {
+					CyclePoint pt = slice.get(j);
+					rowValues.put(DbAdapter.K_POINT_TRIP, tripid);
+					rowValues.put(DbAdapter.K_POINT_LAT, pt.latitude);
+					rowValues.put(DbAdapter.K_POINT_LGT, pt.longitude);
+					rowValues.put(DbAdapter.K_POINT_TIME, pt.time);
+					rowValues.put(DbAdapter.K_POINT_ACC, pt.accuracy);
+					rowValues.put(DbAdapter.K_POINT_ALT, pt.altitude);
+					rowValues.put(DbAdapter.K_POINT_SPEED, pt.speed);
+					assertTrue(raw.insert("coords", null, rowValues) > 0);
+				}
+				rowValues = new ContentValues();
+				rowValues.put(DbAdapter.K_TRIP_END,
+						slice.get(slice.size() - 1).time);
+				assertTrue(raw.update("trips", rowValues, DbAdapter.K_TRIP_ROWID
+						+ "=" + tripid, null) > 0);
+				raw.setTransactionSuccessful();
+			} finally {
+				raw.endTransaction();
+			}
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.database.MatrixCursor;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Adapter;
+import android.widget.FrameLayout;
+
+/**
+ * Scrolls the saved trips and saved notes adapters the way a ListView does:
+ * a screenful of rows handed back as convertView, down the whole list and
+ * back up. The rows come from in-memory cursors, so only binding is timed.
+ * Logs ns and allocations per bind for the second pass, once every row
+ * view and formatter exists, under TAG, and fails if that pass allocated
+ * anything: binding a row that has been shown before must not.
+ */
+public class ScrollBenchmark extends AndroidTestCase {
+	private static final String TAG = "ScrollBenchmark";
+	// Fits the trips adapter's page cache, so no page is read from the db
+	private static final int ROWS = SavedTripsAdapter.PAGE_SIZE
+			* SavedTripsAdapter.MAX_CACHED_PAGES;
+	private static final int VISIBLE = 10;
+
+	private ViewGroup parent;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		parent = new FrameLayout(getContext());
+	}
+
+	public void testTripRows() {
+		SavedTripsAdapter adapter = new SavedTripsAdapter(getContext());
+		try {
+			MatrixCursor keys = new MatrixCursor(new String[] { "_id",
+					"start", "status" }, ROWS);
+			for (int i = 0; i < ROWS; i++) {
+				keys.addRow(new Object[] { tripId(i), tripStart(i),
+						TripData.STATUS_SENT });
+			}
+			adapter.setKeys(keys);
+
+			String[] purposes = { "Commute", "School", "Exercise", "Errand" };
+			for (int page = 0; page * SavedTripsAdapter.PAGE_SIZE < ROWS; page++) {
+				MatrixCursor rows = new MatrixCursor(new String[] { "_id",
+						"purp", "start", "endtime", "distance", "status",
+						"duration", "co2", "calories" },
+						SavedTripsAdapter.PAGE_SIZE);
+				for (int i = page * SavedTripsAdapter.PAGE_SIZE; i < (page + 1)
+						* SavedTripsAdapter.PAGE_SIZE; i++) {
+					rows.addRow(new Object[] { tripId(i),
+							purposes[i % purposes.length], tripStart(i),
+							tripStart(i) + 1800000.0, 8000.0f,
+							TripData.STATUS_SENT, 1800000.0, 7.0f, 250.0f });
+				}
+				adapter.putPage(page, adapter.format(rows));
+			}
+
+			scroll("trips", adapter);
+		} finally {
+			adapter.release();
+		}
+	}
+
+	public void testNoteRows() {
+		MatrixCursor notes = new MatrixCursor(new String[] { "_id",
+				"notetype", "noterecorded", "notestatus" }, ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			notes.addRow(new Object[] { i + 1, i % 12,
+					1380000000000.0 - 3600000.0 * i,
+					i % 3 == 0 ? NoteData.STATUS_COMPLETE
+							: NoteData.STATUS_SENT });
+		}
+		SavedNotesAdapter adapter = new SavedNotesAdapter(getContext(),
+				R.layout.saved_notes_list_item, notes, new String[] {
+						"notetype", "noterecorded", "notestatus" }, new int[] {
+						R.id.TextViewType, R.id.TextViewStart }, 0);
+
+		scroll("notes", adapter);
+	}
+
+	private static long tripId(int position) {
+		return ROWS - position;
+	}
+
+	private static double tripStart(int position) {
+		return 1380000000000.0 - 86400000.0 * position;
+	}
+
+	// Down and back up once to create every row and warm up, then again
+	// for the numbers
+	private void scroll(String name, Adapter adapter) {
+		View[] recycled = new View[VISIBLE * adapter.getViewTypeCount()];
+		pass(adapter, recycled);
+
+		Debug.startAllocCounting();
+		try {
+			Debug.resetThreadAllocCount();
+			long t0 = System.nanoTime();
+			int binds = pass(adapter, recycled);
+			long ns = System.nanoTime() - t0;
+			int allocs = Debug.getThreadAllocCount();
+
+			Log.i(TAG, name + ": " + ns / binds + " ns, " + (float) allocs
+					/ binds + " allocs per bind over " + binds + " binds");
+			assertEquals(name + " allocations", 0, allocs);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	// Each row reuses the view last used VISIBLE rows away, as a ListView
+	// scrolling past a screenful would hand it back
+	private int pass(Adapter adapter, View[] recycled) {
+		int count = adapter.getCount(), binds = 0;
+		for (int pos = 0; pos < count; pos++) {
+			bind(adapter, recycled, pos);
+			binds++;
+		}
+		for (int pos = count - 1; pos >= 0; pos--) {
+			bind(adapter, recycled, pos);
+			binds++;
+		}
+		return binds;
+	}
+
+	private void bind(Adapter adapter, View[] recycled, int pos) {
+		int slot = adapter.getItemViewType(pos) * VISIBLE + pos % VISIBLE;
+		View row = adapter.getView(pos, recycled[slot], parent);
+		assertNotNull(row);
+		recycled[slot] = row;
+	}
+}
@@ -0,0 +1,79 @@
+/**	 Cycle Altanta, Copyright 2012 Georgia Institute of Technology
+ *                                    Atlanta, GA. USA
+ *
+ *   @author Christopher Le Dantec <ledantec@gatech.edu>
+ *   @author Anhong Guo <guoanhong15@gmail.com>
+ *
+ *   Updated/Modified for Atlanta's app deployment. Based on the
+ *   CycleTracks codebase for SFCTA.
+ *
+ *   CycleTracks, Copyright 2009,2010 San Francisco County Transportation Authority
+ *                                    San Francisco, CA, USA
+ *
+ * 	 @author Billy Charlton <billy.charlton@sfcta.org>
+ *
+ *   This file is part of CycleTracks.
+ *
+ *   CycleTracks is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   CycleTracks is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with CycleTracks.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package edu.gatech.ppl.cycleatlanta;
+
+import android.test.AndroidTestCase;
+
+/**
+ * Moving time around pauses: the time stopped must never count as moving,
+ * however short the stop.
+ */
+public class TripSummaryTest extends AndroidTestCase {
+	private static final float RIDING = 5.0f; // m/s
+
+	// A fix a second from start to end, inclusive
+	private static void ride(TripSummary summary, double start, double end) {
+		for (double t = start; t <= end; t += 1000) {
+			summary.addFix(t, RIDING);
+		}
+	}
+
+	public void testMovingTimeSpansFixes() {
+		TripSummary summary = new TripSummary();
+		ride(summary, 0, 10000);
+		assertEquals(10000.0, summary.movingTime, 0.0);
+	}
+
+	public void testBreakRunSkipsTheStop() {
+		TripSummary summary = new TripSummary();
+		ride(summary, 0, 10000);
+		summary.breakRun();
+		// 60 s at a light, well under MAX_MOVING_GAP
+		ride(summary, 70000, 80000);
+		assertEquals(20000.0, summary.movingTime, 0.0);
+	}
+
+	public void testPauseThenResume() {
+		TripData trip = new TripData(getContext(), 0);
+		for (double t = 0; t <= 10000; t += 1000) {
+			trip.addFix(t, RIDING);
+		}
+		trip.startPause(10000);
+		trip.endPause(70000);
+		for (double t = 70000; t <= 80000; t += 1000) {
+			trip.addFix(t, RIDING);
+		}
+
+		assertEquals(20000.0, trip.summary.movingTime, 0.0);
+		assertEquals(60000.0, trip.getPausedTime(90000), 0.0);
+	}
+}